@@ -0,0 +1,48 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+}
+
+dependencies {
+    // The subprojects under test. These are substituted with the included builds. See 'settings.gradle.kts'.
+    jmhImplementation("dgroomes:simple")
+    jmhImplementation("dgroomes:in-memory")
+    jmhImplementation("dgroomes:http-api")
+
+    // The subprojects declare their dependencies as 'implementation', so they are not on our compile classpath.
+    jmhImplementation(libs.lucene.core)
+    jmhImplementation(libs.lucene.queryparser)
+    jmhImplementation(libs.lucene.analysis)
+    jmhImplementation(libs.lucene.facet)
+    jmhImplementation(libs.classgraph)
+    jmhImplementation(libs.slf4j.api)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+
+    // The GC profiler reports the allocation rate (bytes allocated per operation and per second) next to the timings.
+    profilers.add("gc")
+
+    // Narrow down the run with a regular expression, for example: ./gradlew jmh -Pincludes=TimeZoneSearch
+    if (project.hasProperty("includes")) {
+        includes.add(project.property("includes") as String)
+    }
+
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+
+    // The search system logs every search at the info level. That's noise for a benchmark.
+    jvmArgsAppend.add("-Dorg.slf4j.simpleLogger.log.dgroomes=warn")
+}
@@ -0,0 +1,20 @@
+rootProject.name = "benchmarks"
+
+// The benchmarks exercise the code of the other subprojects, so this is the one subproject that is not standalone. It
+// pulls in the other subprojects as Gradle "included builds" and substitutes them for the made-up module coordinates
+// used in 'build.gradle.kts'. See https://docs.gradle.org/current/userguide/composite_builds.html
+includeBuild("../simple") {
+    dependencySubstitution {
+        substitute(module("dgroomes:simple")).using(project(":"))
+    }
+}
+includeBuild("../in-memory") {
+    dependencySubstitution {
+        substitute(module("dgroomes:in-memory")).using(project(":"))
+    }
+}
+includeBuild("../http-api") {
+    dependencySubstitution {
+        substitute(module("dgroomes:http-api")).using(project(":"))
+    }
+}
@@ -0,0 +1,72 @@
+package dgroomes;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The Lucene {@link Directory} implementations that the benchmarks compare.
+ * <p>
+ * The file-system directories are created in a fresh temporary directory. {@link #delete(Path)} cleans it up.
+ */
+public enum DirectoryType {
+
+  /**
+   * The index lives on the Java heap. See the 'in-memory' subproject.
+   */
+  BYTE_BUFFERS,
+
+  /**
+   * The index files are memory-mapped. This is what {@code FSDirectory.open} picks on a 64-bit JVM.
+   */
+  MMAP,
+
+  /**
+   * The index files are read with positional reads through a {@link java.nio.channels.FileChannel}.
+   */
+  NIOFS;
+
+  /**
+   * @param path the file-system location of the directory. It's ignored by {@link #BYTE_BUFFERS}.
+   */
+  Directory open(Path path) throws IOException {
+    return switch (this) {
+      case BYTE_BUFFERS -> new ByteBuffersDirectory();
+      case MMAP -> new MMapDirectory(path);
+      case NIOFS -> new NIOFSDirectory(path);
+    };
+  }
+
+  static Path createTempDir(String prefix) {
+    try {
+      return Files.createTempDirectory(prefix);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static void delete(Path path) {
+    if (path == null || !Files.exists(path)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(path)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(p -> {
+        try {
+          Files.delete(p);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,135 @@
+package dgroomes;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.Facets;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsCollectorManager;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare the {@link FacetBackend}s of the 'http-api' subproject by facet counting latency.
+ * <p>
+ * There are only a few hundred time zones, so each of them is indexed many times over (the {@code copies} parameter) to
+ * get an index that's big enough to measure. Each invocation counts the facets of all documents (a match-all query),
+ * which is the worst case for facet counting. The index size, the taxonomy size, the memory of the facet reader and the
+ * time to build the sorted set state are logged during setup, because the latency is only one side of the trade-off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FacetBackendBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(FacetBackendBenchmark.class);
+  private static final List<String> DIMS = List.of(
+          TimeZoneIndexer.FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME,
+          TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME,
+          TimeZoneIndexer.FIELD_OFFSET_DESCRIPTION);
+
+  @Param({"TAXONOMY", "SORTED_SET"})
+  public FacetBackend facetBackend;
+
+  @Param({"1000"})
+  public int copies;
+
+  @Param({"BYTE_BUFFERS", "MMAP", "NIOFS"})
+  public DirectoryType directoryType;
+
+  private final FacetsConfig facetsConfig = new FacetsConfig();
+  private Path tempDir;
+  private Directory indexDir;
+  private Directory taxonomyDir;
+  private DirectoryReader reader;
+  private DirectoryTaxonomyReader taxonomyReader;
+  private IndexSearcher searcher;
+  private SortedSetDocValuesReaderState state;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    tempDir = DirectoryType.createTempDir("facet-backend-benchmark");
+    indexDir = directoryType.open(tempDir.resolve("index"));
+    taxonomyDir = directoryType.open(tempDir.resolve("taxonomy"));
+
+    List<TimeZone> timeZones = TimeZoneSearchSystem.findTimeZones();
+    try (var analyzer = new StandardAnalyzer();
+         var indexWriter = new IndexWriter(indexDir, new IndexWriterConfig(analyzer));
+         var taxonomyWriter = facetBackend == FacetBackend.TAXONOMY ? new DirectoryTaxonomyWriter(taxonomyDir) : null) {
+      var indexer = new TimeZoneIndexer(indexWriter, taxonomyWriter, facetBackend);
+      for (int i = 0; i < copies; i++) {
+        for (TimeZone timeZone : timeZones) {
+          indexer.index(timeZone);
+        }
+      }
+    }
+
+    reader = DirectoryReader.open(indexDir);
+    searcher = new IndexSearcher(reader);
+    taxonomyReader = facetBackend == FacetBackend.TAXONOMY ? new DirectoryTaxonomyReader(taxonomyDir) : null;
+
+    // The sorted set state is built once per reader. Its cost is paid on the first search after every refresh.
+    long stateStart = System.nanoTime();
+    state = facetBackend == FacetBackend.SORTED_SET ? new DefaultSortedSetDocValuesReaderState(reader, facetsConfig) : null;
+    long stateMicros = (System.nanoTime() - stateStart) / 1_000;
+
+    long indexBytes = sizeInBytes(indexDir);
+    long taxonomyBytes = facetBackend == FacetBackend.TAXONOMY ? sizeInBytes(taxonomyDir) : 0;
+    long facetMemoryBytes = facetBackend == FacetBackend.TAXONOMY ? taxonomyReader.ramBytesUsed() : state.ramBytesUsed();
+    log.info("Facet backend {} on {} documents: index size {} KiB, taxonomy size {} KiB, facet reader memory {} KiB, per-reader state build {} us",
+            facetBackend, reader.numDocs(), indexBytes / 1024, taxonomyBytes / 1024, facetMemoryBytes / 1024, stateMicros);
+  }
+
+  private static long sizeInBytes(Directory dir) throws IOException {
+    long size = 0;
+    for (String file : dir.listAll()) {
+      size += dir.fileLength(file);
+    }
+    return size;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    if (taxonomyReader != null) {
+      taxonomyReader.close();
+    }
+    reader.close();
+    indexDir.close();
+    taxonomyDir.close();
+    DirectoryType.delete(tempDir);
+  }
+
+  @Benchmark
+  public List<FacetResult> countFacets() throws IOException {
+    FacetsCollector facetsCollector = searcher.search(new MatchAllDocsQuery(), new FacetsCollectorManager());
+    Facets facets = switch (facetBackend) {
+      case TAXONOMY -> new FastTaxonomyFacetCounts(taxonomyReader, facetsConfig, facetsCollector);
+      case SORTED_SET -> new SortedSetDocValuesFacetCounts(state, facetsCollector);
+    };
+    var results = new ArrayList<FacetResult>(DIMS.size());
+    for (String dim : DIMS) {
+      results.add(facets.getTopChildren(Integer.MAX_VALUE, dim));
+    }
+    return results;
+  }
+}
@@ -0,0 +1,102 @@
+package dgroomes;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure the indexing throughput of {@link FileAsLinesIndexer#indexFile} in the 'simple' subproject.
+ * <p>
+ * The corpus is generated once per trial from a fixed seed so that every run indexes the same text. Each invocation
+ * indexes the whole corpus into an empty index and commits, so the cost of flushing segments is included. The
+ * {@link Counters} report lines and bytes per second next to the time per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FileAsLinesIndexerBenchmark {
+
+  private static final String[] WORDS = {
+          "lucene", "index", "search", "segment", "term", "query", "document", "field", "token", "analyzer", "explorer",
+          "fish", "entity", "score", "posting", "merge", "commit", "reader", "writer", "directory", "codec", "facet"
+  };
+
+  @Param({"10000", "100000"})
+  public int lines;
+
+  @Param({"BYTE_BUFFERS", "MMAP", "NIOFS"})
+  public DirectoryType directoryType;
+
+  @Param({"STORED_TEXT", "OFFSETS"})
+  public FileAsLinesIndexer.DocumentShape shape;
+
+  private Path tempDir;
+  private Path corpus;
+  private long corpusBytes;
+  private Directory indexDir;
+  private StandardAnalyzer analyzer;
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    public long lines;
+    public long bytes;
+  }
+
+  @Setup(Level.Trial)
+  public void generateCorpus() throws IOException {
+    tempDir = DirectoryType.createTempDir("file-as-lines-benchmark");
+    corpus = tempDir.resolve("corpus.txt");
+    var random = new SplittableRandom(42);
+    try (BufferedWriter writer = Files.newBufferedWriter(corpus)) {
+      for (int i = 0; i < lines; i++) {
+        int words = 4 + random.nextInt(12);
+        for (int w = 0; w < words; w++) {
+          if (w > 0) writer.write(' ');
+          writer.write(WORDS[random.nextInt(WORDS.length)]);
+        }
+        writer.newLine();
+      }
+    }
+    corpusBytes = Files.size(corpus);
+    analyzer = new StandardAnalyzer();
+  }
+
+  @Setup(Level.Invocation)
+  public void openDirectory() throws IOException {
+    indexDir = directoryType.open(Files.createTempDirectory(tempDir, "index"));
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeDirectory() throws IOException {
+    indexDir.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    analyzer.close();
+    DirectoryType.delete(tempDir);
+  }
+
+  @Benchmark
+  public void indexFile(Counters counters) throws IOException {
+    var config = new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    try (var indexWriter = new IndexWriter(indexDir, config)) {
+      new FileAsLinesIndexer(indexWriter, shape).indexFile(corpus);
+      indexWriter.commit();
+    }
+    counters.lines += lines;
+    counters.bytes += corpusBytes;
+  }
+}
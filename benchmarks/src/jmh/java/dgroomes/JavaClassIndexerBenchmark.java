@@ -0,0 +1,165 @@
+package dgroomes;
+
+import io.github.classgraph.ClassGraph;
+import io.github.classgraph.ClassInfo;
+import io.github.classgraph.ScanResult;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure {@link JavaClassIndexer#indexClass} and the class name and package name search from the 'in-memory'
+ * subproject.
+ * <p>
+ * The classpath is scanned once per trial. Scanning is ClassGraph's work, not Lucene's, so it's kept out of the
+ * measurement. The benchmark classpath includes Lucene, ClassGraph and JMH itself, which is a few thousand classes.
+ */
+public class JavaClassIndexerBenchmark {
+
+  /**
+   * The scanned classes. The {@link ScanResult} must stay open while the {@link ClassInfo}s are in use.
+   */
+  @State(Scope.Benchmark)
+  public static class Classpath {
+
+    ScanResult scanResult;
+    List<ClassInfo> classInfos;
+
+    @Setup(Level.Trial)
+    public void scan() {
+      scanResult = new ClassGraph().enableClassInfo().enableMethodInfo().scan();
+      classInfos = scanResult.getAllClasses().stream().toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+      scanResult.close();
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Index {
+
+    @Param({"BYTE_BUFFERS", "MMAP", "NIOFS"})
+    public DirectoryType directoryType;
+
+    Path tempDir;
+    Directory indexDir;
+    StandardAnalyzer analyzer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      tempDir = DirectoryType.createTempDir("java-class-benchmark");
+      analyzer = new StandardAnalyzer();
+    }
+
+    @Setup(Level.Invocation)
+    public void openDirectory() throws IOException {
+      indexDir = directoryType.open(Files.createTempDirectory(tempDir, "index"));
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeDirectory() throws IOException {
+      indexDir.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      analyzer.close();
+      DirectoryType.delete(tempDir);
+    }
+  }
+
+  /**
+   * An index of the classpath that's built once per trial, for the search benchmark.
+   */
+  @State(Scope.Benchmark)
+  public static class Searcher {
+
+    @Param({"BYTE_BUFFERS", "MMAP", "NIOFS"})
+    public DirectoryType directoryType;
+
+    @Param({"Parser", "ClassGraph", "nonapi.io.github.classgraph.types"})
+    public String keyword;
+
+    Path tempDir;
+    Directory indexDir;
+    StandardAnalyzer analyzer;
+    DirectoryReader reader;
+    IndexSearcher searcher;
+    StandardQueryParser queryParser;
+
+    @Setup(Level.Trial)
+    public void setUp(Classpath classpath) throws IOException {
+      tempDir = DirectoryType.createTempDir("java-class-search-benchmark");
+      indexDir = directoryType.open(tempDir.resolve("index"));
+      analyzer = new StandardAnalyzer();
+      try (var indexWriter = new IndexWriter(indexDir, new IndexWriterConfig(analyzer))) {
+        var indexer = new JavaClassIndexer(indexWriter);
+        for (ClassInfo classInfo : classpath.classInfos) {
+          indexer.indexClass(classInfo);
+        }
+      }
+      reader = DirectoryReader.open(indexDir);
+      searcher = new IndexSearcher(reader);
+      queryParser = new StandardQueryParser(analyzer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      reader.close();
+      analyzer.close();
+      indexDir.close();
+      DirectoryType.delete(tempDir);
+    }
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 10)
+  public void indexClasses(Classpath classpath, Index index) throws IOException {
+    var config = new IndexWriterConfig(index.analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    try (var indexWriter = new IndexWriter(index.indexDir, config)) {
+      var indexer = new JavaClassIndexer(indexWriter);
+      for (ClassInfo classInfo : classpath.classInfos) {
+        indexer.indexClass(classInfo);
+      }
+      indexWriter.commit();
+    }
+  }
+
+  /**
+   * Search the class name and the package name fields, like the 'in-memory' Runner does, and load the stored fields of
+   * every hit.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.AverageTime)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void search(Searcher s, Blackhole blackhole) throws IOException, QueryNodeException {
+    var storedFields = s.searcher.storedFields();
+    for (String field : List.of(JavaClassIndexer.FIELD_CLASS_NAME, JavaClassIndexer.FIELD_PACKAGE_NAME)) {
+      Query query = s.queryParser.parse(s.keyword, field);
+      TopDocs results = s.searcher.search(query, 2000);
+      for (var hit : results.scoreDocs) {
+        blackhole.consume(storedFields.document(hit.doc));
+      }
+    }
+  }
+}
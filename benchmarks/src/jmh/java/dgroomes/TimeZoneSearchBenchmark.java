@@ -0,0 +1,61 @@
+package dgroomes;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure {@link TimeZoneSearchSystem#search} in the 'http-api' subproject.
+ * <p>
+ * The result cache is disabled, otherwise every invocation after the first would be a cache hit and we would only be
+ * measuring a map lookup. The query cache is left on because the HTTP service runs with it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimeZoneSearchBenchmark {
+
+  @Param({"Central", "America", "*York*", "Pacific Standard Time"})
+  public String keyword;
+
+  @Param({"10", "100"})
+  public int pageSize;
+
+  @Param({"BYTE_BUFFERS", "MMAP", "NIOFS"})
+  public DirectoryType directoryType;
+
+  private Path tempDir;
+  private Directory indexDir;
+  private Directory taxonomyDir;
+  private StandardAnalyzer analyzer;
+  private TimeZoneSearchSystem searchSystem;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    tempDir = DirectoryType.createTempDir("time-zone-search-benchmark");
+    indexDir = directoryType.open(tempDir.resolve("index"));
+    taxonomyDir = directoryType.open(tempDir.resolve("taxonomy"));
+    analyzer = new StandardAnalyzer();
+    searchSystem = TimeZoneSearchSystem.init(indexDir, analyzer, taxonomyDir,
+            SearchSystemSettings.defaults().withResultCache(ResultCacheSettings.disabled()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    searchSystem.close();
+    analyzer.close();
+    indexDir.close();
+    taxonomyDir.close();
+    DirectoryType.delete(tempDir);
+  }
+
+  @Benchmark
+  public TimeZoneSearchSystem.SearchResult search() {
+    return searchSystem.search(keyword, pageSize, Optional.empty());
+  }
+}
@@ -0,0 +1,142 @@
+package dgroomes;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measure leading wildcard and infix searches on the "contents" field of the 'simple' subproject, with and without the
+ * suffix companion field (see {@link SuffixField}).
+ * <p>
+ * The cost of a plain leading wildcard grows with the number of unique terms, not the number of documents, so the
+ * corpus is made of a large vocabulary of made-up words instead of the handful of words in
+ * {@link FileAsLinesIndexerBenchmark}. The index is built once per trial and its size is logged, because the speedup
+ * is paid for with a bigger index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WildcardQueryBenchmark {
+
+  private static final Logger log = LoggerFactory.getLogger(WildcardQueryBenchmark.class);
+
+  private static final int LINES = 100_000;
+  private static final int VOCABULARY_SIZE = 50_000;
+  private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+  @Param({"*ing", "*ent*", "*x"})
+  public String pattern;
+
+  @Param({"none", "suffixes"})
+  public String wildcardIndex;
+
+  @Param({"BYTE_BUFFERS", "MMAP", "NIOFS"})
+  public DirectoryType directoryType;
+
+  private Path tempDir;
+  private Directory indexDir;
+  private StandardAnalyzer standardAnalyzer;
+  private Analyzer analyzer;
+  private DirectoryReader reader;
+  private IndexSearcher searcher;
+  private Query query;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, QueryNodeException {
+    tempDir = DirectoryType.createTempDir("wildcard-query-benchmark");
+    Path corpus = generateCorpus(tempDir.resolve("corpus.txt"));
+    boolean indexSuffixes = wildcardIndex.equals("suffixes");
+
+    indexDir = directoryType.open(tempDir.resolve("index"));
+    standardAnalyzer = new StandardAnalyzer();
+    analyzer = indexSuffixes ? SuffixField.wrap(standardAnalyzer, Set.of(FileAsLinesIndexer.FIELD_CONTENTS)) : standardAnalyzer;
+    var config = new IndexWriterConfig(analyzer).setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    try (var indexWriter = new IndexWriter(indexDir, config)) {
+      new FileAsLinesIndexer(indexWriter, FileAsLinesIndexer.DocumentShape.OFFSETS, indexSuffixes).indexFile(corpus);
+      indexWriter.forceMerge(1);
+      indexWriter.commit();
+    }
+    reader = DirectoryReader.open(indexDir);
+    searcher = new IndexSearcher(reader);
+
+    var parser = new StandardQueryParser(standardAnalyzer);
+    parser.setAllowLeadingWildcard(true);
+    Query wildcardQuery = parser.parse(pattern, FileAsLinesIndexer.FIELD_CONTENTS);
+    query = indexSuffixes ? SuffixField.rewrite(wildcardQuery, Set.of(FileAsLinesIndexer.FIELD_CONTENTS)) : wildcardQuery;
+
+    // The rewrite must not change what matches. The plain wildcard still works on the same index, so compare.
+    int expected = searcher.count(wildcardQuery);
+    int actual = searcher.count(query);
+    if (expected != actual) {
+      throw new IllegalStateException("The query %s matched %d lines but %s matched %d".formatted(wildcardQuery, expected, query, actual));
+    }
+
+    long indexBytes = 0;
+    for (String file : indexDir.listAll()) {
+      indexBytes += indexDir.fileLength(file);
+    }
+    log.info("Index size with wildcard index '{}': {} KiB. The query {} matches {} lines.", wildcardIndex,
+            indexBytes / 1024, query, actual);
+  }
+
+  /**
+   * Write lines of words drawn from a vocabulary of random lower-case words, from a fixed seed.
+   */
+  private static Path generateCorpus(Path corpus) throws IOException {
+    var random = new SplittableRandom(42);
+    var vocabulary = new String[VOCABULARY_SIZE];
+    for (int i = 0; i < vocabulary.length; i++) {
+      var word = new StringBuilder();
+      int length = 3 + random.nextInt(10);
+      for (int c = 0; c < length; c++) {
+        word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+      }
+      vocabulary[i] = word.toString();
+    }
+
+    try (BufferedWriter writer = Files.newBufferedWriter(corpus)) {
+      for (int i = 0; i < LINES; i++) {
+        int words = 4 + random.nextInt(12);
+        for (int w = 0; w < words; w++) {
+          if (w > 0) writer.write(' ');
+          writer.write(vocabulary[random.nextInt(vocabulary.length)]);
+        }
+        writer.newLine();
+      }
+    }
+    return corpus;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    analyzer.close();
+    standardAnalyzer.close();
+    indexDir.close();
+    DirectoryType.delete(tempDir);
+  }
+
+  @Benchmark
+  public TopDocs search() throws IOException {
+    return searcher.search(query, 10);
+  }
+}
@@ -0,0 +1,118 @@
+package dgroomes;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of searches that run at once, with a bounded queue for the searches that wait. See
+ * {@link AdmissionSettings}.
+ * <p>
+ * Every successful {@link #tryAdmit()} must be paired with a {@link #release()}, and every successful
+ * {@link #tryAdmit(int)} with a {@link #release(int)} of the same number of permits.
+ */
+class AdmissionControl {
+
+  /**
+   * Why a search was not admitted.
+   */
+  enum Rejection {
+
+    /**
+     * The queue was full, so the search was rejected without waiting.
+     */
+    QUEUE_FULL,
+
+    /**
+     * The search waited in the queue for the longest allowed time.
+     */
+    QUEUE_WAIT
+  }
+
+  private final AdmissionSettings settings;
+  private final Metrics metrics;
+  private final Semaphore permits;
+  private final AtomicInteger queued = new AtomicInteger();
+
+  AdmissionControl(AdmissionSettings settings, Metrics metrics) {
+    this.settings = settings;
+    this.metrics = metrics;
+    // A fair semaphore hands out the permits in arrival order, so the queue is a queue.
+    this.permits = new Semaphore(settings.maxConcurrentSearches(), true);
+  }
+
+  /**
+   * Wait for a turn to search.
+   *
+   * @return null if the search may run, or the reason it may not
+   */
+  Rejection tryAdmit() {
+    return tryAdmit(1);
+  }
+
+  /**
+   * Wait for a turn to run several searches at once, like the searches of a batch. The permits are taken all at once,
+   * so a batch counts against the same limit as the single searches.
+   *
+   * @param permits the number of searches to run at once. At most {@link AdmissionSettings#maxConcurrentSearches()}.
+   * @return null if the searches may run, or the reason they may not
+   */
+  Rejection tryAdmit(int permits) {
+    if (permits < 1 || permits > settings.maxConcurrentSearches()) {
+      throw new IllegalArgumentException("The permits must be between 1 and %d but were %d"
+              .formatted(settings.maxConcurrentSearches(), permits));
+    }
+
+    // Don't use the plain "tryAcquire()" here. It takes a free permit even when other searches are waiting for one, which
+    // would let new searches jump the queue. The timed variant respects the fairness of the semaphore.
+    try {
+      if (this.permits.tryAcquire(permits, 0, TimeUnit.NANOSECONDS)) {
+        return null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      metrics.increment(Metrics.SearchEvent.SHED_QUEUE_WAIT);
+      return Rejection.QUEUE_WAIT;
+    }
+
+    if (queued.incrementAndGet() > settings.maxQueuedSearches()) {
+      queued.decrementAndGet();
+      metrics.increment(Metrics.SearchEvent.SHED_QUEUE_FULL);
+      return Rejection.QUEUE_FULL;
+    }
+    try {
+      if (this.permits.tryAcquire(permits, settings.maxQueueWait().toNanos(), TimeUnit.NANOSECONDS)) {
+        return null;
+      }
+      metrics.increment(Metrics.SearchEvent.SHED_QUEUE_WAIT);
+      return Rejection.QUEUE_WAIT;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      metrics.increment(Metrics.SearchEvent.SHED_QUEUE_WAIT);
+      return Rejection.QUEUE_WAIT;
+    } finally {
+      queued.decrementAndGet();
+    }
+  }
+
+  void release() {
+    release(1);
+  }
+
+  void release(int permits) {
+    this.permits.release(permits);
+  }
+
+  AdmissionSettings settings() {
+    return settings;
+  }
+
+  /**
+   * A hint for the client of how long to wait before retrying a rejected search, in whole seconds as the "Retry-After"
+   * header wants it. A search that is rejected has waited at most the max queue wait, so that's about how long it takes
+   * for the queue to move.
+   */
+  long retryAfterSeconds() {
+    return Math.max(1, (settings.maxQueueWait().toMillis() + 999) / 1_000);
+  }
+}
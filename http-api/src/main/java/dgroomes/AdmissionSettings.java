@@ -0,0 +1,53 @@
+package dgroomes;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Settings for how much search work the server takes on at once, and for how long a single search may run.
+ * <p>
+ * A search runs on the CPU from start to end, so running more searches at once than there are cores doesn't finish them
+ * any sooner. It only makes every one of them slower. Searches beyond the concurrency limit wait in a bounded queue.
+ * When the queue is full, or a search has waited too long, the request is turned away right away with a 503 instead
+ * of piling up behind the others. A client can retry it later.
+ *
+ * @param maxConcurrentSearches the most searches that run at once
+ * @param maxQueuedSearches     the most searches that wait for their turn. Beyond this, requests are rejected.
+ * @param maxQueueWait          the longest a search waits for its turn before it's rejected
+ * @param searchBudget          the time a search may spend matching and collecting hits. When it runs out, the search
+ *                              returns the hits it has found so far, flagged as partial. Zero means no limit.
+ */
+public record AdmissionSettings(int maxConcurrentSearches, int maxQueuedSearches, Duration maxQueueWait,
+                                Duration searchBudget) {
+
+  public static final int DEFAULT_MAX_QUEUED_SEARCHES = 100;
+  public static final Duration DEFAULT_MAX_QUEUE_WAIT = Duration.ofMillis(500);
+  public static final Duration DEFAULT_SEARCH_BUDGET = Duration.ofMillis(200);
+
+  public AdmissionSettings {
+    if (maxConcurrentSearches < 1 || maxQueuedSearches < 0 || maxQueueWait.isNegative() || searchBudget.isNegative()) {
+      throw new IllegalArgumentException("Invalid admission settings: maxConcurrentSearches=%d maxQueuedSearches=%d maxQueueWait=%s searchBudget=%s"
+              .formatted(maxConcurrentSearches, maxQueuedSearches, maxQueueWait, searchBudget));
+    }
+  }
+
+  /**
+   * As many concurrent searches as there are cores.
+   */
+  public static AdmissionSettings defaults() {
+    return new AdmissionSettings(Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_QUEUED_SEARCHES,
+            DEFAULT_MAX_QUEUE_WAIT, DEFAULT_SEARCH_BUDGET);
+  }
+
+  /**
+   * The most searches of one batch that run at once. It's half of the concurrency limit, so that a batch waiting for
+   * its permits doesn't hold up the single searches until every running search is done.
+   */
+  int maxBatchParallelism() {
+    return Math.max(1, maxConcurrentSearches / 2);
+  }
+
+  Optional<Duration> budget() {
+    return searchBudget.isZero() ? Optional.empty() : Optional.of(searchBudget);
+  }
+}
@@ -0,0 +1,111 @@
+package dgroomes;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.ParseException;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * This handles HTTP requests that represent a batch of searches. The request body is a list of keywords, one per line.
+ * For example:
+ * <pre>
+ *   curl -X POST --data-binary $'Europe\nIsla*\nPacific' 'http://localhost:8080/batch?size=5'
+ * </pre>
+ * All the keywords are searched against the same snapshot of the index, concurrently, and the results come back in one
+ * response in the same order as the keywords.
+ */
+class BatchHttpHandler implements HttpRequestHandler {
+
+  private static final int MAX_BATCH_SIZE = 100;
+
+  private final TimeZoneSearchSystem timeZoneSearchSystem;
+  private final AdmissionControl admissionControl;
+
+  /**
+   * @param admissionControl a batch takes a turn for each of its searches that run at once, up to
+   *                         {@link AdmissionSettings#maxBatchParallelism()}. Each search gets the time budget.
+   */
+  BatchHttpHandler(TimeZoneSearchSystem timeZoneSearchSystem, AdmissionControl admissionControl) {
+    this.timeZoneSearchSystem = timeZoneSearchSystem;
+    this.admissionControl = admissionControl;
+  }
+
+  @Override
+  public void handle(final ClassicHttpRequest request, final ClassicHttpResponse response, final HttpContext context) throws IOException {
+    if (!Method.POST.isSame(request.getMethod())) {
+      response.setCode(405);
+      response.setEntity(new StringEntity("A batch search must be a POST request with one keyword per line in the body."));
+      return;
+    }
+
+    List<String> keywords;
+    try {
+      keywords = parseKeywords(request);
+    } catch (ParseException e) {
+      response.setCode(400);
+      response.setEntity(new StringEntity("The request body could not be read: " + e.getMessage()));
+      return;
+    }
+    if (keywords.isEmpty() || keywords.size() > MAX_BATCH_SIZE) {
+      response.setCode(400);
+      response.setEntity(new StringEntity("The request body must have between 1 and %d keywords, one per line, but it had %d."
+              .formatted(MAX_BATCH_SIZE, keywords.size())));
+      return;
+    }
+
+    int pageSize;
+    try {
+      pageSize = HttpHandler.parsePageSize(HttpHandler.parseQueryParams(request).get("size"));
+    } catch (IllegalArgumentException e) {
+      response.setCode(400);
+      response.setEntity(new StringEntity(e.getMessage()));
+      return;
+    }
+
+    int parallelism = Math.min(keywords.size(), admissionControl.settings().maxBatchParallelism());
+    if (!HttpHandler.admit(admissionControl, parallelism, response)) {
+      return;
+    }
+    List<TimeZoneSearchSystem.SearchResult> results;
+    try {
+      results = timeZoneSearchSystem.searchBatch(keywords, pageSize, admissionControl.settings().budget(), parallelism);
+    } finally {
+      admissionControl.release(parallelism);
+    }
+
+    if (HttpHandler.acceptsJson(request)) {
+      response.setEntity(HttpHandler.timedJson(JsonSearchResultEntity.batch(keywords, results), timeZoneSearchSystem.metrics()));
+      return;
+    }
+
+    var msg = new StringBuilder();
+    for (int i = 0; i < keywords.size(); i++) {
+      msg.append(HttpHandler.toText(keywords.get(i), results.get(i))).append("\n");
+    }
+    response.setEntity(new StringEntity(msg.toString()));
+  }
+
+  /**
+   * Read the keywords from the request body. Blank lines are ignored.
+   */
+  private static List<String> parseKeywords(ClassicHttpRequest request) throws IOException, ParseException {
+    if (request.getEntity() == null) {
+      return List.of();
+    }
+
+    String body = EntityUtils.toString(request.getEntity(), StandardCharsets.UTF_8);
+    return body.lines()
+            .map(String::strip)
+            .filter(line -> !line.isEmpty())
+            .collect(Collectors.toList());
+  }
+}
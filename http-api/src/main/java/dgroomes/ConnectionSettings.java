@@ -0,0 +1,41 @@
+package dgroomes;
+
+import java.time.Duration;
+
+/**
+ * Settings for the server's connections. They are applied the same way in both serving modes, so that the modes can be
+ * compared fairly.
+ * <p>
+ * The backlog is the number of connections that the operating system accepts on the server's behalf before the server
+ * gets to them. When it's full, new connections are refused. The idle timeout closes a keep-alive connection that has
+ * gone quiet, so an idle or half-dead client doesn't keep a thread and a file descriptor forever.
+ *
+ * @param backlog     the length of the queue of connections waiting to be accepted
+ * @param idleTimeout the longest a connection may wait for the next request. Zero means no limit.
+ */
+public record ConnectionSettings(int backlog, Duration idleTimeout) {
+
+  public static final int DEFAULT_BACKLOG = 1024;
+
+  /**
+   * The same as the default socket timeout of the HttpCore5 classic server.
+   */
+  public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(3);
+
+  public ConnectionSettings {
+    if (backlog < 1 || idleTimeout.isNegative() || idleTimeout.toMillis() > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid connection settings: backlog=%d idleTimeout=%s".formatted(backlog, idleTimeout));
+    }
+  }
+
+  public static ConnectionSettings defaults() {
+    return new ConnectionSettings(DEFAULT_BACKLOG, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * The idle timeout in the unit of {@link java.net.Socket#setSoTimeout(int)}.
+   */
+  int idleTimeoutMillis() {
+    return (int) idleTimeout.toMillis();
+  }
+}
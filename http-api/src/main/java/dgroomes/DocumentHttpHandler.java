@@ -0,0 +1,96 @@
+package dgroomes;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
+/**
+ * This handles HTTP requests that change the time zone documents while the server is running. The document is
+ * identified by its time zone ID. For example:
+ * <pre>
+ *   curl -X POST   'http://localhost:8080/documents?id=Mars/Olympus_Mons&name=Mars%20Coordinated%20Time&offset=PT0S&dst=false'
+ *   curl -X PUT    'http://localhost:8080/documents?id=Mars/Olympus_Mons&name=Mars%20Time&offset=PT1H&dst=false&wait=true'
+ *   curl -X DELETE 'http://localhost:8080/documents?id=Mars/Olympus_Mons'
+ * </pre>
+ * POST adds a document, PUT replaces the document with the same ID (or adds it) and DELETE deletes it. The change is
+ * visible to searches shortly after the response. Pass "wait=true" to get the response only once searches see the
+ * change.
+ */
+class DocumentHttpHandler implements HttpRequestHandler {
+
+  private final TimeZoneSearchSystem timeZoneSearchSystem;
+
+  DocumentHttpHandler(TimeZoneSearchSystem timeZoneSearchSystem) {
+    this.timeZoneSearchSystem = timeZoneSearchSystem;
+  }
+
+  @Override
+  public void handle(final ClassicHttpRequest request, final ClassicHttpResponse response, final HttpContext context) {
+    var params = HttpHandler.parseQueryParams(request);
+    String id = params.get("id");
+    if (id == null || id.isBlank()) {
+      response.setCode(400);
+      response.setEntity(new StringEntity("The 'id' query parameter is required. Please supply it."));
+      return;
+    }
+
+    String method = request.getMethod();
+    long generation;
+    String msg;
+    try {
+      if (Method.POST.isSame(method)) {
+        generation = timeZoneSearchSystem.add(parseTimeZone(id, params));
+        msg = "Added '%s'.".formatted(id);
+      } else if (Method.PUT.isSame(method)) {
+        generation = timeZoneSearchSystem.update(parseTimeZone(id, params));
+        msg = "Updated '%s'.".formatted(id);
+      } else if (Method.DELETE.isSame(method)) {
+        generation = timeZoneSearchSystem.delete(id);
+        msg = "Deleted '%s'.".formatted(id);
+      } else {
+        response.setCode(405);
+        response.setEntity(new StringEntity("Use POST to add, PUT to update or DELETE to delete a time zone document."));
+        return;
+      }
+    } catch (IllegalArgumentException e) {
+      response.setCode(400);
+      response.setEntity(new StringEntity(e.getMessage()));
+      return;
+    }
+
+    if (Boolean.parseBoolean(params.get("wait"))) {
+      timeZoneSearchSystem.awaitVisible(generation);
+      msg += " The change is visible to searches.";
+    } else {
+      msg += " The change will be visible to searches shortly.";
+    }
+    response.setEntity(new StringEntity(msg + "\n"));
+  }
+
+  /**
+   * Parse the time zone from the query parameters: "name" (the display name), "offset" (an ISO-8601 duration like
+   * "PT-5H", which is how offsets are shown in the search results) and "dst" (does it observe daylight savings time?).
+   */
+  private static TimeZoneData parseTimeZone(String id, Map<String, String> params) {
+    String name = params.get("name");
+    String offset = params.get("offset");
+    if (name == null || offset == null) {
+      throw new IllegalArgumentException("The 'name' and 'offset' query parameters are required. Please supply them.");
+    }
+
+    Duration parsedOffset;
+    try {
+      parsedOffset = Duration.parse(offset);
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException("The 'offset' query parameter must be an ISO-8601 duration like 'PT-5H' but was '%s'".formatted(offset));
+    }
+    return new TimeZoneData(id, name, parsedOffset, Boolean.parseBoolean(params.get("dst")));
+  }
+}
@@ -0,0 +1,21 @@
+package dgroomes;
+
+/**
+ * How facet counts are indexed and computed.
+ */
+public enum FacetBackend {
+
+  /**
+   * Facet labels are assigned ordinals in a separate taxonomy index. This supports hierarchical dimensions and large
+   * numbers of labels, at the cost of a second index that has to be written, committed and opened alongside the main
+   * index.
+   */
+  TAXONOMY,
+
+  /**
+   * Facet labels are stored as {@link org.apache.lucene.index.SortedSetDocValues} in the main index. There is no second
+   * index, but the label ordinals have to be mapped across segments once per reader. That's cheap for flat,
+   * low-cardinality dimensions like ours.
+   */
+  SORTED_SET
+}
@@ -0,0 +1,55 @@
+package dgroomes;
+
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.LabelAndValue;
+
+import java.util.*;
+
+/**
+ * Merge facet results that were counted separately over disjoint sets of documents (for example, one set per slice).
+ * <p>
+ * This is only correct when each input has all the children of a dimension and not just the top N. We always ask for
+ * all the children, so that's the case here.
+ * <p>
+ * The children are ordered by count, highest first, and then by label. Lucene breaks ties in its own way (by ordinal),
+ * so a single slice goes through the merge too. Otherwise, the order of children with the same count would depend on
+ * whether the search was split into slices.
+ */
+class FacetResultMerger {
+
+  private FacetResultMerger() {}
+
+  /**
+   * @param perSlice the facet results of each slice
+   * @param dims     the dimensions, in the order they should be returned
+   */
+  static List<FacetResult> merge(List<List<FacetResult>> perSlice, List<String> dims) {
+    var merged = new ArrayList<FacetResult>();
+    for (String dim : dims) {
+      long value = 0;
+      Map<String, Long> counts = new HashMap<>();
+      boolean found = false;
+      for (List<FacetResult> results : perSlice) {
+        for (FacetResult result : results) {
+          if (!result.dim.equals(dim)) continue;
+
+          found = true;
+          value += result.value.longValue();
+          for (LabelAndValue labelAndValue : result.labelValues) {
+            counts.merge(labelAndValue.label, labelAndValue.value.longValue(), Long::sum);
+          }
+        }
+      }
+
+      // A dimension with no matching documents in any slice is absent, the same as when it's counted in one pass.
+      if (!found) continue;
+
+      LabelAndValue[] labelValues = counts.entrySet().stream()
+              .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+              .map(entry -> new LabelAndValue(entry.getKey(), entry.getValue().intValue()))
+              .toArray(LabelAndValue[]::new);
+      merged.add(new FacetResult(dim, new String[0], (int) value, labelValues, labelValues.length));
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,104 @@
+package dgroomes;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Read the fields of the hits on a page from doc values, to show them to the client.
+ * <p>
+ * Stored fields are kept row by row, in compressed blocks of many documents. Loading one document decompresses its
+ * whole block. Doc values are kept column by column, so reading the offset of a hit is a lookup in the offset column.
+ * The hits are read segment by segment and column by column. Within a segment, the hits are visited in doc ID order,
+ * because a doc values iterator only moves forward.
+ */
+class HitLoader {
+
+  private HitLoader() {}
+
+  /**
+   * @param hits the hits, in the order they should be shown. Their doc IDs are top-level doc IDs of the reader.
+   * @return the data of each hit, in the same order as the hits
+   */
+  static List<TimeZoneData> load(IndexReader reader, List<ScoreDoc> hits) throws IOException {
+    int n = hits.size();
+    int[] byDoc = IntStream.range(0, n).boxed()
+            .sorted(Comparator.comparingInt(i -> hits.get(i).doc))
+            .mapToInt(Integer::intValue)
+            .toArray();
+
+    var ids = new String[n];
+    var displayNames = new String[n];
+    var offsets = new long[n];
+    var observesDaylightTime = new boolean[n];
+
+    List<LeafReaderContext> leaves = reader.leaves();
+    int start = 0;
+    while (start < n) {
+      LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(hits.get(byDoc[start]).doc, leaves));
+      int end = start;
+      int leafEnd = leaf.docBase + leaf.reader().maxDoc();
+      while (end < n && hits.get(byDoc[end]).doc < leafEnd) {
+        end++;
+      }
+
+      // The hits from byDoc[start] to byDoc[end - 1] are in this segment.
+      int[] docs = Arrays.stream(byDoc, start, end).map(i -> hits.get(i).doc - leaf.docBase).toArray();
+      LeafReader leafReader = leaf.reader();
+
+      BinaryDocValues idValues = DocValues.getBinary(leafReader, TimeZoneIndexer.FIELD_ID);
+      for (int i = 0; i < docs.length; i++) {
+        require(idValues.advanceExact(docs[i]), docs[i], TimeZoneIndexer.FIELD_ID);
+        ids[byDoc[start + i]] = idValues.binaryValue().utf8ToString();
+      }
+
+      SortedDocValues displayNameValues = DocValues.getSorted(leafReader, TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME);
+      for (int i = 0; i < docs.length; i++) {
+        require(displayNameValues.advanceExact(docs[i]), docs[i], TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME);
+        displayNames[byDoc[start + i]] = displayNameValues.lookupOrd(displayNameValues.ordValue()).utf8ToString();
+      }
+
+      NumericDocValues offsetValues = DocValues.getNumeric(leafReader, TimeZoneIndexer.FIELD_OFFSET_MILLIS);
+      for (int i = 0; i < docs.length; i++) {
+        require(offsetValues.advanceExact(docs[i]), docs[i], TimeZoneIndexer.FIELD_OFFSET_MILLIS);
+        offsets[byDoc[start + i]] = offsetValues.longValue();
+      }
+
+      NumericDocValues dstValues = DocValues.getNumeric(leafReader, TimeZoneIndexer.FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME);
+      for (int i = 0; i < docs.length; i++) {
+        require(dstValues.advanceExact(docs[i]), docs[i], TimeZoneIndexer.FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME);
+        observesDaylightTime[byDoc[start + i]] = dstValues.longValue() == 1;
+      }
+
+      start = end;
+    }
+
+    var loaded = new TimeZoneData[n];
+    for (int i = 0; i < n; i++) {
+      loaded[i] = new TimeZoneData(ids[i], displayNames[i], Duration.ofMillis(offsets[i]), observesDaylightTime[i]);
+    }
+    return List.of(loaded);
+  }
+
+  /**
+   * Every document has a value for every field. A missing value means the index was written by an older version.
+   */
+  private static void require(boolean hasValue, int doc, String field) {
+    if (!hasValue) {
+      throw new IllegalStateException("The document %d has no '%s' doc value".formatted(doc, field));
+    }
+  }
+}
@@ -2,18 +2,24 @@ package dgroomes;
 
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.NameValuePair;
 import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.entity.HttpEntityWrapper;
 import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.protocol.HttpContext;
 import org.apache.hc.core5.net.URIBuilder;
 import org.apache.lucene.facet.FacetResult;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TimeZone;
 import java.util.stream.Collectors;
 
 /**
@@ -21,26 +27,117 @@ import java.util.stream.Collectors;
  */
 class HttpHandler implements HttpRequestHandler {
 
+  private static final int DEFAULT_PAGE_SIZE = 20;
+  private static final int MAX_PAGE_SIZE = 1_000;
+
   private final TimeZoneSearchSystem timeZoneSearchSystem;
+  private final AdmissionControl admissionControl;
+  private final Metrics metrics;
 
-  public HttpHandler(TimeZoneSearchSystem timeZoneSearchSystem) {
+  public HttpHandler(TimeZoneSearchSystem timeZoneSearchSystem, AdmissionControl admissionControl) {
     this.timeZoneSearchSystem = timeZoneSearchSystem;
+    this.admissionControl = admissionControl;
+    this.metrics = timeZoneSearchSystem.metrics();
   }
 
   @Override
   public void handle(final ClassicHttpRequest request, final ClassicHttpResponse response, final HttpContext context) {
-    Optional<String> keywordOpt = parseKeyword(request);
-    if (keywordOpt.isEmpty()) {
+    long start = System.nanoTime();
+    var params = parseQueryParams(request);
+    String keyword = params.get("keyword");
+    if (keyword == null) {
       response.setCode(400);
       response.setEntity(new StringEntity("The 'keyword' query parameter is required. Please supply it."));
       return;
     }
 
-    var keyword = keywordOpt.get();
-    TimeZoneSearchSystem.SearchResult result = timeZoneSearchSystem.search(keyword);
+    int pageSize;
+    Optional<SearchCursor> cursor;
+    SortOrder sortOrder;
+    try {
+      pageSize = parsePageSize(params.get("size"));
+      cursor = Optional.ofNullable(params.get("cursor")).map(SearchCursor::decode);
+      sortOrder = parseSortOrder(params.get("sort"));
+    } catch (IllegalArgumentException e) {
+      response.setCode(400);
+      response.setEntity(new StringEntity(e.getMessage()));
+      return;
+    }
+    metrics.recordSince(Metrics.Phase.REQUEST_PARSE, start);
+
+    if (!admit(admissionControl, response)) {
+      return;
+    }
+    TimeZoneSearchSystem.SearchResult result;
+    try {
+      result = timeZoneSearchSystem.search(keyword, pageSize, cursor, admissionControl.settings().budget(), sortOrder);
+    } catch (IllegalArgumentException e) {
+      // Lucene rejects a cursor that doesn't fit the current index, for example a document ID past the end of the index.
+      response.setCode(400);
+      response.setEntity(new StringEntity("The 'cursor' query parameter is not valid for this search: " + e.getMessage()));
+      return;
+    } finally {
+      admissionControl.release();
+    }
+
+    if (acceptsJson(request)) {
+      response.setEntity(timedJson(new JsonSearchResultEntity(keyword, result), metrics));
+      return;
+    }
+
+    start = System.nanoTime();
+    String text = toText(keyword, result);
+    metrics.recordSince(Metrics.Phase.SERIALIZE, start);
+    response.setEntity(new StringEntity(text));
+  }
+
+  /**
+   * The JSON is written straight to the connection when the server sends the response, after the handler has returned.
+   * So it's timed by wrapping the entity.
+   */
+  static HttpEntity timedJson(JsonSearchResultEntity entity, Metrics metrics) {
+    return new HttpEntityWrapper(entity) {
+      @Override
+      public void writeTo(OutputStream outStream) throws IOException {
+        long start = System.nanoTime();
+        super.writeTo(outStream);
+        metrics.recordSince(Metrics.Phase.SERIALIZE, start);
+      }
+    };
+  }
+
+  /**
+   * Wait for a turn to search. If the server is too busy, respond with a 503 and a "Retry-After" header right away.
+   * The caller must release the admission control after the search if this returns true.
+   */
+  static boolean admit(AdmissionControl admissionControl, ClassicHttpResponse response) {
+    return admit(admissionControl, 1, response);
+  }
+
+  /**
+   * Like {@link #admit(AdmissionControl, ClassicHttpResponse)}, but for several searches that run at once. The caller
+   * must release the same number of permits.
+   */
+  static boolean admit(AdmissionControl admissionControl, int permits, ClassicHttpResponse response) {
+    AdmissionControl.Rejection rejection = admissionControl.tryAdmit(permits);
+    if (rejection == null) {
+      return true;
+    }
+    response.setCode(503);
+    response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(admissionControl.retryAfterSeconds()));
+    response.setEntity(new StringEntity(switch (rejection) {
+      case QUEUE_FULL -> "The server is too busy to take this search. Please retry later.";
+      case QUEUE_WAIT -> "The server was too busy to get to this search in time. Please retry later.";
+    }));
+    return false;
+  }
 
+  /**
+   * Format a search result as human-readable text.
+   */
+  static String toText(String keyword, TimeZoneSearchSystem.SearchResult result) {
     String msg;
-    if (result.hits().isEmpty()) {
+    if (result.totalHits() == 0) {
       msg = "No search results found for keyword '%s'".formatted(keyword);
     } else {
       var facetsSerialized = result.facetResults().stream()
@@ -48,32 +145,78 @@ class HttpHandler implements HttpRequestHandler {
               .collect(Collectors.joining("\n", "", ""));
 
       var hitsSerialized = result.hits().stream()
-              .map(doc -> {
-                String id = doc.get(TimeZoneIndexer.FIELD_ID);
-                TimeZone timeZone = TimeZone.getTimeZone(id);
-                return toString(timeZone);
-              })
+              .map(hit -> toString(hit))
               .collect(Collectors.joining("\n", "", ""));
 
+      var nextPage = result.nextCursor()
+              .map(nextCursor -> "Next page: cursor=" + nextCursor.encode())
+              .orElse("This is the last page.");
+      if (result.partial()) {
+        nextPage += "\nThe search ran out of time. These results are partial: they may be missing some hits.";
+      }
+
       msg = """
-              Search found %d hits for keyword '%s'.
+              Search found %d hits for keyword '%s'. Showing %d.
               
               Facet results:
               %s
               
               Hits:
               %s
-              """.formatted(result.hits().size(), keyword, facetsSerialized.indent(4), hitsSerialized.indent(4));
+              
+              %s
+              """.formatted(result.totalHits(), keyword, result.hits().size(), facetsSerialized.indent(4),
+              hitsSerialized.indent(4), nextPage);
     }
+    return msg;
+  }
 
-    var responseBody = new StringEntity(msg);
-    response.setEntity(responseBody);
+  /**
+   * Does the client ask for JSON? The human-readable text format is the default.
+   */
+  static boolean acceptsJson(ClassicHttpRequest request) {
+    Header accept = request.getFirstHeader(HttpHeaders.ACCEPT);
+    return accept != null && accept.getValue().contains(ContentType.APPLICATION_JSON.getMimeType());
   }
 
   /**
-   * Parse out the "keyword" query parameter if it exists. If it does not exist, an empty {@link Optional} is returned.
+   * Parse the "size" query parameter. This is the number of hits per page.
    */
-  private Optional<String> parseKeyword(ClassicHttpRequest request) {
+  static int parsePageSize(String size) {
+    if (size == null) {
+      return DEFAULT_PAGE_SIZE;
+    }
+
+    int pageSize;
+    try {
+      pageSize = Integer.parseInt(size);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("The 'size' query parameter must be a number but was '%s'".formatted(size));
+    }
+    if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("The 'size' query parameter must be between 1 and %d but was %d".formatted(MAX_PAGE_SIZE, pageSize));
+    }
+    return pageSize;
+  }
+
+  /**
+   * Parse the "sort" query parameter. The hits are sorted by relevance by default.
+   */
+  static SortOrder parseSortOrder(String sort) {
+    if (sort == null) {
+      return SortOrder.RELEVANCE;
+    }
+    return switch (sort) {
+      case "relevance" -> SortOrder.RELEVANCE;
+      case "offset" -> SortOrder.OFFSET;
+      default -> throw new IllegalArgumentException("The 'sort' query parameter must be 'relevance' or 'offset' but was '%s'".formatted(sort));
+    };
+  }
+
+  /**
+   * Parse the query parameters of the request.
+   */
+  static Map<String, String> parseQueryParams(ClassicHttpRequest request) {
     URI uri;
     try {
       uri = request.getUri();
@@ -81,12 +224,7 @@ class HttpHandler implements HttpRequestHandler {
       throw new IllegalStateException("Unexpected error while parsing the HTTP request URI", e);
     }
 
-    var params = parseQueryParams(uri);
-    if (params.containsKey("keyword")) {
-      return Optional.of(params.get("keyword"));
-    } else {
-      return Optional.empty();
-    }
+    return parseQueryParams(uri);
   }
 
   /**
@@ -96,7 +234,7 @@ class HttpHandler implements HttpRequestHandler {
    *
    * @return a map of the query parameter/value pairs, keyed by query parameter name.
    */
-  private Map<String, String> parseQueryParams(URI uri) {
+  private static Map<String, String> parseQueryParams(URI uri) {
     return new URIBuilder(uri)
             .getQueryParams()
             .stream()
@@ -104,13 +242,12 @@ class HttpHandler implements HttpRequestHandler {
   }
 
   /**
-   * This is used to format the TimeZone object search result in a way that reflects the fields we've showcased: ID,
-   * offset and "observes daylight savings time".
+   * This is used to format a time zone search hit in a way that reflects the fields we've showcased: ID, offset and
+   * "observes daylight savings time". The hit is shown from what was read out of the index, not by looking up the time
+   * zone by its ID, because documents added through the "/documents" endpoint don't have to be real time zones.
    */
-  public static String toString(TimeZone timeZone) {
-    return "%s (%s) offset=%s observesDST=%s".formatted(timeZone.getDisplayName(),
-            timeZone.getID(),
-            TimeZoneIndexer.getOffsetDescription(timeZone),
-            timeZone.observesDaylightTime());
+  public static String toString(TimeZoneData hit) {
+    return "%s (%s) offset=%s observesDST=%s".formatted(hit.displayName(), hit.id(), hit.offsetDescription(),
+            hit.observesDaylightTime());
   }
 }
@@ -0,0 +1,159 @@
+package dgroomes;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.LabelAndValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * An HTTP entity that streams a search result as JSON directly to the response output stream.
+ * <p>
+ * Unlike a {@link org.apache.hc.core5.http.io.entity.StringEntity}, the response body is never materialized in memory.
+ * The content length is unknown up front, so the response uses chunked transfer encoding. The shape of the JSON for
+ * one search is:
+ * <pre>
+ * {
+ *   "keyword": "Europe",
+ *   "totalHits": 65,
+ *   "partial": false,
+ *   "nextCursor": "P8mQ-gAAAAQ",
+ *   "facets": [
+ *     { "dim": "offset", "value": 65, "childCount": 5, "labels": [ { "label": "PT1H", "count": 32 }, ... ] },
+ *     ...
+ *   ],
+ *   "hits": [
+ *     { "id": "Europe/Amsterdam", "displayName": "Central European Standard Time", "offset": "PT1H", "observesDaylightTime": true },
+ *     ...
+ *   ]
+ * }
+ * </pre>
+ * The JSON for a batch of searches is an object with a "results" array of these.
+ */
+class JsonSearchResultEntity extends AbstractHttpEntity {
+
+  private final List<String> keywords;
+  private final List<TimeZoneSearchSystem.SearchResult> results;
+  private final boolean batch;
+
+  private JsonSearchResultEntity(List<String> keywords, List<TimeZoneSearchSystem.SearchResult> results, boolean batch) {
+    super(ContentType.APPLICATION_JSON, null, true);
+    this.keywords = keywords;
+    this.results = results;
+    this.batch = batch;
+  }
+
+  JsonSearchResultEntity(String keyword, TimeZoneSearchSystem.SearchResult result) {
+    this(List.of(keyword), List.of(result), false);
+  }
+
+  /**
+   * The results of a batch of searches.
+   *
+   * @param results the result of each keyword, in the same order as the keywords
+   */
+  static JsonSearchResultEntity batch(List<String> keywords, List<TimeZoneSearchSystem.SearchResult> results) {
+    return new JsonSearchResultEntity(keywords, results, true);
+  }
+
+  @Override
+  public void writeTo(OutputStream outStream) throws IOException {
+    var json = new JsonWriter(outStream);
+    if (batch) {
+      json.beginObject().name("results").beginArray();
+      for (int i = 0; i < keywords.size(); i++) {
+        writeSearchResult(json, keywords.get(i), results.get(i));
+      }
+      json.endArray().endObject();
+    } else {
+      writeSearchResult(json, keywords.get(0), results.get(0));
+    }
+    json.flush();
+  }
+
+  private static void writeSearchResult(JsonWriter json, String keyword, TimeZoneSearchSystem.SearchResult result) throws IOException {
+    json.beginObject()
+            .name("keyword").value(keyword)
+            .name("totalHits").value(result.totalHits())
+            .name("partial").value(result.partial())
+            .name("nextCursor").value(result.nextCursor().map(SearchCursor::encode).orElse(null));
+
+    json.name("facets").beginArray();
+    for (FacetResult facetResult : result.facetResults()) {
+      writeFacetResult(json, facetResult);
+    }
+    json.endArray();
+
+    json.name("hits").beginArray();
+    for (TimeZoneData hit : result.hits()) {
+      writeHit(json, hit);
+    }
+    json.endArray();
+
+    json.endObject();
+  }
+
+  private static void writeFacetResult(JsonWriter json, FacetResult facetResult) throws IOException {
+    json.beginObject()
+            .name("dim").value(facetResult.dim)
+            .name("value").value(facetResult.value.longValue())
+            .name("childCount").value(facetResult.childCount);
+    json.name("labels").beginArray();
+    for (LabelAndValue labelAndValue : facetResult.labelValues) {
+      json.beginObject()
+              .name("label").value(labelAndValue.label)
+              .name("count").value(labelAndValue.value.longValue())
+              .endObject();
+    }
+    json.endArray();
+    json.endObject();
+  }
+
+  private static void writeHit(JsonWriter json, TimeZoneData hit) throws IOException {
+    json.beginObject()
+            .name("id").value(hit.id())
+            .name("displayName").value(hit.displayName())
+            .name("offset").value(hit.offsetDescription())
+            .name("observesDaylightTime").value(hit.observesDaylightTime())
+            .endObject();
+  }
+
+  /**
+   * The server calls {@link #writeTo} instead, which streams. This is for other consumers of the entity, like
+   * {@link org.apache.hc.core5.http.io.entity.EntityUtils#toString}. It renders the whole JSON into memory.
+   */
+  @Override
+  public InputStream getContent() throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    writeTo(bytes);
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  /**
+   * The entity is rendered from the search results, which are held in memory, so it can be written any number of times.
+   */
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public boolean isStreaming() {
+    return false;
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,184 @@
+package dgroomes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A minimal streaming JSON writer that encodes straight into a fixed-size byte buffer and flushes it to an output
+ * stream when it fills up.
+ * <p>
+ * It only does what we need for search responses: objects, arrays, strings, numbers and booleans. The caller is
+ * responsible for producing well-formed JSON (for example, calling {@link #name(String)} before each value in an
+ * object). The writer takes care of the commas.
+ * <p>
+ * The buffer is reused by all the writers on a thread, so the memory needed to write a response does not grow with the
+ * size of the response.
+ */
+class JsonWriter {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private final OutputStream out;
+  private final byte[] buffer = BUFFERS.get();
+  private int position;
+
+  /**
+   * Is the next value the first one in the current object or array? This decides if a comma is needed.
+   */
+  private boolean first = true;
+
+  JsonWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  JsonWriter beginObject() throws IOException {
+    separate();
+    writeByte('{');
+    first = true;
+    return this;
+  }
+
+  JsonWriter endObject() throws IOException {
+    writeByte('}');
+    first = false;
+    return this;
+  }
+
+  JsonWriter beginArray() throws IOException {
+    separate();
+    writeByte('[');
+    first = true;
+    return this;
+  }
+
+  JsonWriter endArray() throws IOException {
+    writeByte(']');
+    first = false;
+    return this;
+  }
+
+  /**
+   * Write the name of the next member of an object.
+   */
+  JsonWriter name(String name) throws IOException {
+    separate();
+    writeQuoted(name);
+    writeByte(':');
+    first = true;
+    return this;
+  }
+
+  JsonWriter value(String value) throws IOException {
+    separate();
+    if (value == null) {
+      writeAscii("null");
+    } else {
+      writeQuoted(value);
+    }
+    first = false;
+    return this;
+  }
+
+  JsonWriter value(long value) throws IOException {
+    separate();
+    writeAscii(Long.toString(value));
+    first = false;
+    return this;
+  }
+
+  JsonWriter value(boolean value) throws IOException {
+    separate();
+    writeAscii(value ? "true" : "false");
+    first = false;
+    return this;
+  }
+
+  /**
+   * Write out whatever is left in the buffer. The underlying stream is not closed.
+   */
+  void flush() throws IOException {
+    out.write(buffer, 0, position);
+    position = 0;
+    out.flush();
+  }
+
+  private void separate() throws IOException {
+    if (!first) {
+      writeByte(',');
+    }
+  }
+
+  private void writeQuoted(String s) throws IOException {
+    writeByte('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> writeEscape('"');
+        case '\\' -> writeEscape('\\');
+        case '\n' -> writeEscape('n');
+        case '\r' -> writeEscape('r');
+        case '\t' -> writeEscape('t');
+        default -> {
+          if (c < 0x20) {
+            writeByte('\\');
+            writeByte('u');
+            writeByte('0');
+            writeByte('0');
+            writeByte(HEX[c >> 4]);
+            writeByte(HEX[c & 0xF]);
+          } else if (c < 0x80) {
+            writeByte(c);
+          } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            writeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+          } else {
+            writeCodePoint(c);
+          }
+        }
+      }
+    }
+    writeByte('"');
+  }
+
+  private void writeEscape(char c) throws IOException {
+    writeByte('\\');
+    writeByte(c);
+  }
+
+  /**
+   * Encode a code point as UTF-8. A lone surrogate is not valid in UTF-8 so it's replaced with '?', the same as
+   * {@link String#getBytes} does.
+   */
+  private void writeCodePoint(int codePoint) throws IOException {
+    if (codePoint < 0x800) {
+      writeByte(0xC0 | (codePoint >> 6));
+      writeByte(0x80 | (codePoint & 0x3F));
+    } else if (Character.isSurrogate((char) codePoint) && codePoint < 0x10000) {
+      writeByte('?');
+    } else if (codePoint < 0x10000) {
+      writeByte(0xE0 | (codePoint >> 12));
+      writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+      writeByte(0x80 | (codePoint & 0x3F));
+    } else {
+      writeByte(0xF0 | (codePoint >> 18));
+      writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+      writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+      writeByte(0x80 | (codePoint & 0x3F));
+    }
+  }
+
+  private void writeAscii(String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      writeByte(s.charAt(i));
+    }
+  }
+
+  private void writeByte(int b) throws IOException {
+    if (position == buffer.length) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+    buffer[position++] = (byte) b;
+  }
+}
@@ -0,0 +1,115 @@
+package dgroomes;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, in the style of HdrHistogram.
+ * <p>
+ * The buckets are log-linear: every power of two is split into 32 equal sub-buckets. So a recorded value is known to
+ * within about 3% of its true value, from nanoseconds to hours, with a fixed array of under two thousand counters.
+ * Recording a value is a few bit operations and an atomic increment. It doesn't allocate and it doesn't lock, so it's
+ * cheap enough to do several times on every request, from any number of threads.
+ * <p>
+ * Reading the percentiles copies the counters. A recording that happens during a read may or may not be included, which
+ * is fine for monitoring.
+ */
+class LatencyHistogram {
+
+  /**
+   * Values below 2^SUB_BUCKET_BITS get a bucket each. Above that, each power of two gets 2^(SUB_BUCKET_BITS - 1)
+   * buckets.
+   */
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+  /**
+   * The largest shift is for the largest long value, whose highest bit is bit 62.
+   */
+  private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (62 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong sumNanos = new AtomicLong();
+
+  /**
+   * Record the time since the given start, as returned by {@link System#nanoTime()}.
+   */
+  void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts.incrementAndGet(bucketOf(nanos));
+    sumNanos.addAndGet(nanos);
+  }
+
+  /**
+   * A point-in-time copy of the histogram.
+   */
+  Snapshot snapshot() {
+    long[] copy = new long[BUCKET_COUNT];
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = counts.get(i);
+      total += copy[i];
+    }
+    return new Snapshot(copy, total, sumNanos.get());
+  }
+
+  record Snapshot(long[] counts, long count, long sumNanos) {
+
+    /**
+     * The value at the given percentile, in nanoseconds. This is the highest value of the bucket the percentile falls
+     * in, so it errs on the side of reporting a higher latency.
+     *
+     * @param percentile between 0 and 100
+     */
+    long valueAtPercentile(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestValueOf(i);
+        }
+      }
+      return highestValueOf(counts.length - 1);
+    }
+
+    double valueAtPercentileSeconds(double percentile) {
+      return (double) valueAtPercentile(percentile) / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    double sumSeconds() {
+      return (double) sumNanos / TimeUnit.SECONDS.toNanos(1);
+    }
+  }
+
+  static int bucketOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int highestBit = 63 - Long.numberOfLeadingZeros(value);
+    int shift = highestBit - SUB_BUCKET_BITS + 1;
+    int subBucket = (int) (value >>> shift) - SUB_BUCKET_HALF_COUNT;
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + subBucket;
+  }
+
+  static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKET_COUNT) {
+      return bucket;
+    }
+    int offset = bucket - SUB_BUCKET_COUNT;
+    int shift = offset / SUB_BUCKET_HALF_COUNT + 1;
+    long mantissa = offset % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+    return ((mantissa + 1) << shift) - 1;
+  }
+}
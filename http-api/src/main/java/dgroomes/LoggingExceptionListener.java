@@ -9,19 +9,30 @@ import org.slf4j.LoggerFactory;
 import java.net.SocketTimeoutException;
 
 /**
- * A simple exception listener that just logs exceptions.
+ * A simple exception listener that logs exceptions and counts them by kind. Timeouts and closed connections are normal
+ * for keep-alive connections, so they are only logged at the trace level, but a spike in their count is still visible in
+ * the metrics.
  */
 class LoggingExceptionListener implements ExceptionListener {
 
   private static final Logger log = LoggerFactory.getLogger(LoggingExceptionListener.class);
 
+  private final Metrics metrics;
+
+  LoggingExceptionListener(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   @Override
   public void onError(final Exception ex) {
     if (ex instanceof SocketTimeoutException) {
+      metrics.increment(Metrics.ConnectionEvent.TIMEOUT);
       log.trace("Connection timed out", ex);
     } else if (ex instanceof ConnectionClosedException) {
+      metrics.increment(Metrics.ConnectionEvent.CLOSED);
       log.trace("Connection closed", ex);
     } else {
+      metrics.increment(Metrics.ConnectionEvent.ERROR);
       log.error("Unexpected exception", ex);
     }
   }
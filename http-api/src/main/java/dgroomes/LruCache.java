@@ -0,0 +1,178 @@
+package dgroomes;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A small, bounded, thread-safe cache that evicts the least-recently-used entries when it's full.
+ * <p>
+ * This is deliberately simple. It's a {@link LinkedHashMap} in access order guarded by a lock. The cache is bounded by
+ * the number of entries and, optionally, by the total "weight" of the values, where the caller decides what the weight
+ * of a value is. This way a few big values can't crowd out the memory budget the same way many small values would.
+ * <p>
+ * Values are computed outside the lock so a slow computation doesn't block readers of other keys. Concurrent misses on
+ * the same key are coalesced: only the first thread computes the value and the others wait for it ("single-flight").
+ */
+class LruCache<K, V> {
+
+  private final int maxEntries;
+  private final long maxWeight;
+  private final ToLongFunction<V> weigher;
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private long weight;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private record Entry<V>(V value, long weight) {}
+
+  LruCache(int maxEntries) {
+    this(maxEntries, Long.MAX_VALUE, value -> 1);
+  }
+
+  /**
+   * @param maxEntries the maximum number of entries
+   * @param maxWeight  the maximum total weight of the values
+   * @param weigher    computes the weight of a value. A value that is heavier than the max weight is not cached.
+   */
+  LruCache(int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+    if (maxEntries < 1 || maxWeight < 1) {
+      throw new IllegalArgumentException("The max entries and max weight must be at least 1 but were %d and %d".formatted(maxEntries, maxWeight));
+    }
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+  }
+
+  /**
+   * Get the value for the key, computing and caching it if it's absent.
+   * <p>
+   * If another thread is already computing the value for the same key, this waits for that value instead of computing
+   * it again. If the computation fails, the exception is thrown to every waiting thread and nothing is cached.
+   */
+  V get(K key, Function<K, V> loader) {
+    return get(key, loader, value -> true);
+  }
+
+  /**
+   * Like {@link #get(Object, Function)}, but a loaded value is only cached if it passes the test. The value is still
+   * returned, and handed to the threads that waited for it.
+   */
+  V get(K key, Function<K, V> loader, Predicate<? super V> cacheable) {
+    V value = getIfPresent(key);
+    if (value != null) {
+      hits.increment();
+      return value;
+    }
+
+    var future = new CompletableFuture<V>();
+    CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+    if (existing != null) {
+      coalesced.increment();
+      try {
+        return existing.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        if (e.getCause() instanceof Error error) {
+          throw error;
+        }
+        throw e;
+      }
+    }
+
+    try {
+      // Another thread may have finished loading the value between the lookup and registering the in-flight load.
+      value = getIfPresent(key);
+      if (value != null) {
+        hits.increment();
+      } else {
+        misses.increment();
+        value = loader.apply(key);
+        if (cacheable.test(value)) {
+          put(key, value);
+        }
+      }
+      future.complete(value);
+      return value;
+    } catch (Throwable e) {
+      // Not only exceptions. If an error (a stack overflow, say) left the future incomplete, the waiting threads would
+      // wait forever.
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  private V getIfPresent(K key) {
+    synchronized (entries) {
+      Entry<V> entry = entries.get(key);
+      return entry == null ? null : entry.value();
+    }
+  }
+
+  private void put(K key, V value) {
+    long valueWeight = weigher.applyAsLong(value);
+    if (valueWeight > maxWeight) {
+      return;
+    }
+
+    synchronized (entries) {
+      Entry<V> previous = entries.put(key, new Entry<>(value, valueWeight));
+      if (previous != null) {
+        weight -= previous.weight();
+      }
+      weight += valueWeight;
+
+      // Evict from the least-recently-used end until the cache is back within its bounds.
+      Iterator<Entry<V>> eldest = entries.values().iterator();
+      while (entries.size() > maxEntries || weight > maxWeight) {
+        Entry<V> evicted = eldest.next();
+        eldest.remove();
+        weight -= evicted.weight();
+        evictions.increment();
+      }
+    }
+  }
+
+  Stats stats() {
+    int size;
+    long currentWeight;
+    synchronized (entries) {
+      size = entries.size();
+      currentWeight = weight;
+    }
+    return new Stats(hits.sum(), misses.sum(), coalesced.sum(), evictions.sum(), size, currentWeight);
+  }
+
+  /**
+   * A snapshot of the cache's effectiveness. A "coalesced" request is a miss that waited for another thread's load
+   * instead of doing its own.
+   */
+  record Stats(long hits, long misses, long coalesced, long evictions, int size, long weight) {
+
+    double hitRate() {
+      long requests = hits + misses + coalesced;
+      return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+      return "hits=%d misses=%d coalesced=%d evictions=%d size=%d weight=%d hitRate=%.2f"
+              .formatted(hits, misses, coalesced, evictions, size, weight, hitRate());
+    }
+  }
+}
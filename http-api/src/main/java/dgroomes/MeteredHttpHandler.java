@@ -0,0 +1,46 @@
+package dgroomes;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+/**
+ * Wraps the handler of a route to count its requests and errors and to time it. A 4xx response counts as a client
+ * error. A 5xx response, or an exception that escapes the handler (which the server turns into a 500), counts as a
+ * server error.
+ */
+class MeteredHttpHandler implements HttpRequestHandler {
+
+  private final HttpRequestHandler delegate;
+  private final Metrics.Route metrics;
+
+  MeteredHttpHandler(HttpRequestHandler delegate, Metrics.Route metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void handle(final ClassicHttpRequest request, final ClassicHttpResponse response, final HttpContext context) throws HttpException, IOException {
+    long start = System.nanoTime();
+    metrics.requests.incrementAndGet();
+    try {
+      delegate.handle(request, response, context);
+    } catch (HttpException | IOException | RuntimeException e) {
+      metrics.serverErrors.incrementAndGet();
+      throw e;
+    } finally {
+      metrics.latency.recordSince(start);
+    }
+
+    int code = response.getCode();
+    if (code >= 500) {
+      metrics.serverErrors.incrementAndGet();
+    } else if (code >= 400) {
+      metrics.clientErrors.incrementAndGet();
+    }
+  }
+}
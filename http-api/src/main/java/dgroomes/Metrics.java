@@ -0,0 +1,217 @@
+package dgroomes;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency histograms and counters of the search service, and their exposition in the Prometheus text format.
+ * <p>
+ * A search is timed phase by phase, so that a regression can be pinned on the phase that got slower instead of only
+ * showing up in the total. Every metric is created up front or once per route at startup, so recording is
+ * allocation-free. See {@link LatencyHistogram}.
+ */
+class Metrics {
+
+  private static final String PHASE_DURATION = "timezone_search_phase_duration_seconds";
+  private static final String REQUEST_DURATION = "timezone_search_request_duration_seconds";
+  private static final String REQUESTS = "timezone_search_requests_total";
+  private static final String ERRORS = "timezone_search_errors_total";
+  private static final String CONNECTION_EVENTS = "timezone_search_connection_events_total";
+  private static final String SEARCH_EVENTS = "timezone_search_overload_events_total";
+  private static final String CACHE_LOOKUPS = "timezone_search_cache_lookups_total";
+  private static final List<Double> QUANTILES = List.of(0.5, 0.9, 0.99, 0.999);
+
+  /**
+   * The phases of a search request, in the order they happen.
+   */
+  enum Phase {
+
+    /**
+     * Parsing the URI and the query parameters.
+     */
+    REQUEST_PARSE,
+
+    /**
+     * Parsing and analyzing the keyword into a Lucene query, or finding it in the query cache.
+     */
+    QUERY_PARSE,
+
+    /**
+     * Matching, scoring and collecting the top hits and the facet matches in one pass.
+     */
+    SEARCH,
+
+    /**
+     * Counting the facets of the collected matches.
+     */
+    FACETS,
+
+    /**
+     * Reading the fields of the hits on the page from doc values. See {@link HitLoader}.
+     */
+    DOC_VALUES,
+
+    /**
+     * Turning the search result into the response body. For JSON, the body is streamed, so this includes writing it to
+     * the connection.
+     */
+    SERIALIZE;
+
+    String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * The kinds of exceptions reported to the server's exception listener. See {@link LoggingExceptionListener}.
+   */
+  enum ConnectionEvent {
+    TIMEOUT,
+    CLOSED,
+    ERROR;
+
+    String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * The ways a search can be cut short under load. See {@link AdmissionControl}.
+   */
+  enum SearchEvent {
+
+    /**
+     * The search was rejected because the queue of waiting searches was full.
+     */
+    SHED_QUEUE_FULL,
+
+    /**
+     * The search was rejected because it waited in the queue for too long.
+     */
+    SHED_QUEUE_WAIT,
+
+    /**
+     * The search ran out of its time budget and returned partial results.
+     */
+    TIMED_OUT;
+
+    String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  /**
+   * The request count, error counts and total latency of one route.
+   */
+  static class Route {
+    final LatencyHistogram latency = new LatencyHistogram();
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong clientErrors = new AtomicLong();
+    final AtomicLong serverErrors = new AtomicLong();
+  }
+
+  private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+  private final AtomicLong[] connectionEvents = new AtomicLong[ConnectionEvent.values().length];
+  private final AtomicLong[] searchEvents = new AtomicLong[SearchEvent.values().length];
+  private final Map<String, Route> routes = new ConcurrentHashMap<>();
+
+  Metrics() {
+    for (int i = 0; i < phases.length; i++) {
+      phases[i] = new LatencyHistogram();
+    }
+    for (int i = 0; i < connectionEvents.length; i++) {
+      connectionEvents[i] = new AtomicLong();
+    }
+    for (int i = 0; i < searchEvents.length; i++) {
+      searchEvents[i] = new AtomicLong();
+    }
+  }
+
+  /**
+   * Record the time of a phase since the given start, as returned by {@link System#nanoTime()}.
+   */
+  void recordSince(Phase phase, long startNanos) {
+    phases[phase.ordinal()].recordSince(startNanos);
+  }
+
+  void increment(ConnectionEvent event) {
+    connectionEvents[event.ordinal()].incrementAndGet();
+  }
+
+  void increment(SearchEvent event) {
+    searchEvents[event.ordinal()].incrementAndGet();
+  }
+
+  /**
+   * Get the metrics of a route, creating them on first use. Call this once per route, at startup, and keep the result.
+   */
+  Route route(String name) {
+    return routes.computeIfAbsent(name, k -> new Route());
+  }
+
+  /**
+   * Write all metrics in the Prometheus text exposition format (version 0.0.4). The histograms are exposed as summaries
+   * with precomputed quantiles, in seconds.
+   *
+   * @param cacheStats the statistics of the caches, keyed by cache name
+   */
+  void writePrometheus(StringBuilder out, Map<String, LruCache.Stats> cacheStats) {
+    header(out, PHASE_DURATION, "summary", "The time spent in each phase of a search request.");
+    for (Phase phase : Phase.values()) {
+      writeSummary(out, PHASE_DURATION, "phase=\"%s\"".formatted(phase.label()), phases[phase.ordinal()].snapshot());
+    }
+
+    header(out, REQUEST_DURATION, "summary", "The time to handle a request, by route.");
+    routes.forEach((route, metrics) -> writeSummary(out, REQUEST_DURATION, "route=\"%s\"".formatted(route), metrics.latency.snapshot()));
+
+    header(out, REQUESTS, "counter", "The number of requests, by route.");
+    routes.forEach((route, metrics) -> sample(out, REQUESTS, "route=\"%s\"".formatted(route), metrics.requests.get()));
+
+    header(out, ERRORS, "counter", "The number of requests that failed, by route and by whose fault it was.");
+    routes.forEach((route, metrics) -> {
+      sample(out, ERRORS, "route=\"%s\",kind=\"client\"".formatted(route), metrics.clientErrors.get());
+      sample(out, ERRORS, "route=\"%s\",kind=\"server\"".formatted(route), metrics.serverErrors.get());
+    });
+
+    header(out, CONNECTION_EVENTS, "counter", "The number of exceptions reported by the HTTP server's exception listener, by kind.");
+    for (ConnectionEvent event : ConnectionEvent.values()) {
+      sample(out, CONNECTION_EVENTS, "kind=\"%s\"".formatted(event.label()), connectionEvents[event.ordinal()].get());
+    }
+
+    header(out, SEARCH_EVENTS, "counter", "The number of searches that were shed or timed out under load, by kind.");
+    for (SearchEvent event : SearchEvent.values()) {
+      sample(out, SEARCH_EVENTS, "kind=\"%s\"".formatted(event.label()), searchEvents[event.ordinal()].get());
+    }
+
+    header(out, CACHE_LOOKUPS, "counter", "The number of cache lookups, by cache and by result.");
+    cacheStats.forEach((cache, stats) -> {
+      sample(out, CACHE_LOOKUPS, "cache=\"%s\",result=\"hit\"".formatted(cache), stats.hits());
+      sample(out, CACHE_LOOKUPS, "cache=\"%s\",result=\"miss\"".formatted(cache), stats.misses());
+      sample(out, CACHE_LOOKUPS, "cache=\"%s\",result=\"coalesced\"".formatted(cache), stats.coalesced());
+    });
+  }
+
+  private static void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void writeSummary(StringBuilder out, String name, String labels, LatencyHistogram.Snapshot snapshot) {
+    for (double quantile : QUANTILES) {
+      sample(out, name, labels + ",quantile=\"%s\"".formatted(quantile), snapshot.valueAtPercentileSeconds(quantile * 100));
+    }
+    sample(out, name + "_sum", labels, snapshot.sumSeconds());
+    sample(out, name + "_count", labels, snapshot.count());
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, double value) {
+    out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  private static void sample(StringBuilder out, String name, String labels, long value) {
+    out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+}
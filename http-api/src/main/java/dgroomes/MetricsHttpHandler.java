@@ -0,0 +1,41 @@
+package dgroomes;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.message.BasicNameValuePair;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.util.LinkedHashMap;
+
+/**
+ * This handles HTTP requests for the metrics of the search service, in the Prometheus text format. Point a Prometheus
+ * scrape job at it, or have a look yourself:
+ * <pre>
+ *   curl http://localhost:8080/metrics
+ * </pre>
+ */
+class MetricsHttpHandler implements HttpRequestHandler {
+
+  private static final ContentType PROMETHEUS_TEXT = ContentType.create("text/plain",
+          new BasicNameValuePair("version", "0.0.4"), new BasicNameValuePair("charset", "utf-8"));
+
+  private final TimeZoneSearchSystem timeZoneSearchSystem;
+
+  MetricsHttpHandler(TimeZoneSearchSystem timeZoneSearchSystem) {
+    this.timeZoneSearchSystem = timeZoneSearchSystem;
+  }
+
+  @Override
+  public void handle(final ClassicHttpRequest request, final ClassicHttpResponse response, final HttpContext context) {
+    var cacheStats = new LinkedHashMap<String, LruCache.Stats>();
+    cacheStats.put("query", timeZoneSearchSystem.queryCacheStats());
+    timeZoneSearchSystem.resultCacheStats().ifPresent(stats -> cacheStats.put("result", stats));
+
+    var out = new StringBuilder();
+    timeZoneSearchSystem.metrics().writePrometheus(out, cacheStats);
+    response.setEntity(new StringEntity(out.toString(), PROMETHEUS_TEXT));
+  }
+}
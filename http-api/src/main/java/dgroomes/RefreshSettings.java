@@ -0,0 +1,42 @@
+package dgroomes;
+
+import java.time.Duration;
+
+/**
+ * Settings for how quickly changes to the index become visible to searches and how often they are made durable.
+ * <p>
+ * Searches see a near-real-time view of the index: the readers are reopened from the index writer, without a commit.
+ * A background thread reopens them at least every "max stale" interval. When a writer of the index waits for its
+ * change to be visible, the thread reopens sooner, but not more often than every "min stale" interval. Reopening is
+ * much cheaper than committing, because a commit has to fsync the index files. Commits happen on their own, slower
+ * schedule.
+ *
+ * @param maxStale       the longest time that a change may be invisible to searches when nobody is waiting for it
+ * @param minStale       the shortest time between reopens when someone is waiting for a change
+ * @param commitInterval the time between commits. Changes since the last commit are lost if the process crashes.
+ */
+public record RefreshSettings(Duration maxStale, Duration minStale, Duration commitInterval) {
+
+  public static final Duration DEFAULT_MAX_STALE = Duration.ofSeconds(1);
+  public static final Duration DEFAULT_MIN_STALE = Duration.ofMillis(10);
+  public static final Duration DEFAULT_COMMIT_INTERVAL = Duration.ofSeconds(30);
+
+  public RefreshSettings {
+    if (minStale.isNegative() || minStale.compareTo(maxStale) > 0 || commitInterval.isNegative() || commitInterval.isZero()) {
+      throw new IllegalArgumentException("Invalid refresh settings: maxStale=%s minStale=%s commitInterval=%s"
+              .formatted(maxStale, minStale, commitInterval));
+    }
+  }
+
+  public static RefreshSettings defaults() {
+    return new RefreshSettings(DEFAULT_MAX_STALE, DEFAULT_MIN_STALE, DEFAULT_COMMIT_INTERVAL);
+  }
+
+  double maxStaleSeconds() {
+    return maxStale.toNanos() / 1e9;
+  }
+
+  double minStaleSeconds() {
+    return minStale.toNanos() / 1e9;
+  }
+}
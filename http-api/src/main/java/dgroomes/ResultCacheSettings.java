@@ -0,0 +1,32 @@
+package dgroomes;
+
+/**
+ * Settings for the cache of full search results.
+ *
+ * @param maxEntries the maximum number of cached results, or 0 to disable the cache
+ * @param maxWeight  the maximum total weight of the cached results. The weight of a result is roughly the number of
+ *                   hits plus the number of facet labels in it.
+ */
+public record ResultCacheSettings(int maxEntries, long maxWeight) {
+
+  public static final int DEFAULT_MAX_ENTRIES = 10_000;
+  public static final long DEFAULT_MAX_WEIGHT = 1_000_000;
+
+  public ResultCacheSettings {
+    if (maxEntries < 0 || maxWeight < 1) {
+      throw new IllegalArgumentException("Invalid result cache settings: maxEntries=%d maxWeight=%d".formatted(maxEntries, maxWeight));
+    }
+  }
+
+  public static ResultCacheSettings defaults() {
+    return new ResultCacheSettings(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+  }
+
+  public static ResultCacheSettings disabled() {
+    return new ResultCacheSettings(0, DEFAULT_MAX_WEIGHT);
+  }
+
+  boolean isEnabled() {
+    return maxEntries > 0;
+  }
+}
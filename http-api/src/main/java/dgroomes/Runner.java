@@ -2,16 +2,26 @@ package dgroomes;
 
 import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
 import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.SocketConfig;
 import org.apache.hc.core5.io.CloseMode;
 import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A demonstration that exposes Lucene search as an HTTP API. See the README for more information.
@@ -22,29 +32,164 @@ public class Runner {
   private static final int PORT = 8080;
 
   public static void main(String[] args) {
+    long start = System.nanoTime();
+    var options = CommandLineOptions.parse(args);
+    String indexPath = options.string("index-path", null);
 
-    try (Directory indexDir = new ByteBuffersDirectory();
-         Directory taxonomyDir = new ByteBuffersDirectory();
-         Analyzer analyzer = new StandardAnalyzer()) {
+    try (ExecutorService searchExecutor = searchExecutor(options);
+         Directory indexDir = directory(indexPath, "index");
+         Directory taxonomyDir = directory(indexPath, "taxonomy");
+         Analyzer analyzer = new StandardAnalyzer();
+         TimeZoneSearchSystem searchSystem = TimeZoneSearchSystem.init(indexDir, analyzer, taxonomyDir,
+                 searchSystemSettings(options, searchExecutor))) {
 
-      TimeZoneSearchSystem searchSystem = TimeZoneSearchSystem.init(indexDir, analyzer, taxonomyDir);
-      runServerContinuously(searchSystem);
+      Runtime runtime = Runtime.getRuntime();
+      log.info("Started in {} ms. Index location: {}. Heap used: {} MiB", (System.nanoTime() - start) / 1_000_000,
+              indexPath == null ? "in-memory" : indexPath, (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+      runServerContinuously(searchSystem, admissionSettings(options), connectionSettings(options),
+              options.string("serving-mode", "classic"));
     } catch (IOException e) {
       log.error("Unexpected error", e);
       throw new RuntimeException(e);
     }
   }
 
+  /**
+   * Open the directory for the index or the taxonomy. By default, it's an in-memory directory that is rebuilt on every
+   * start. With an index path, it's a memory-mapped directory on disk: the index survives a restart, and its pages live
+   * in the operating system's page cache instead of on the Java heap.
+   */
+  private static Directory directory(String indexPath, String name) throws IOException {
+    if (indexPath == null) {
+      return new ByteBuffersDirectory();
+    }
+    return new MMapDirectory(Path.of(indexPath, name));
+  }
+
+  /**
+   * Create the executor that searches index slices and counts facets in parallel. By default, there is none and each
+   * search runs on the thread that handles the request.
+   * <p>
+   * Virtual threads are cheap to create, so every search can fan out without a bounded pool. A fork-join pool instead
+   * caps the number of threads used for searching across all concurrent requests.
+   */
+  private static ExecutorService searchExecutor(CommandLineOptions options) {
+    String searchExecutor = options.string("search-executor", "none");
+    return switch (searchExecutor) {
+      case "none" -> null;
+      case "virtual-threads" -> Executors.newVirtualThreadPerTaskExecutor();
+      case "fork-join" -> new ForkJoinPool(options.integer("search-threads", Runtime.getRuntime().availableProcessors()));
+      default -> throw new IllegalArgumentException("Unknown search executor '%s'. Expected one of: none, virtual-threads, fork-join".formatted(searchExecutor));
+    };
+  }
+
+  private static SearchSystemSettings searchSystemSettings(CommandLineOptions options, ExecutorService searchExecutor) {
+    return new SearchSystemSettings(searchConcurrency(options, searchExecutor), facetBackend(options),
+            resultCacheSettings(options), refreshSettings(options), indexSuffixes(options));
+  }
+
+  private static boolean indexSuffixes(CommandLineOptions options) {
+    String wildcardIndex = options.string("wildcard-index", "none");
+    return switch (wildcardIndex) {
+      case "none" -> false;
+      case "suffixes" -> true;
+      default -> throw new IllegalArgumentException("Unknown wildcard index '%s'. Expected one of: none, suffixes".formatted(wildcardIndex));
+    };
+  }
+
+  private static FacetBackend facetBackend(CommandLineOptions options) {
+    String facetBackend = options.string("facet-backend", "taxonomy");
+    return switch (facetBackend) {
+      case "taxonomy" -> FacetBackend.TAXONOMY;
+      case "sorted-set" -> FacetBackend.SORTED_SET;
+      default -> throw new IllegalArgumentException("Unknown facet backend '%s'. Expected one of: taxonomy, sorted-set".formatted(facetBackend));
+    };
+  }
+
+  private static ResultCacheSettings resultCacheSettings(CommandLineOptions options) {
+    return new ResultCacheSettings(
+            options.integer("result-cache-size", ResultCacheSettings.DEFAULT_MAX_ENTRIES),
+            options.integer("result-cache-max-weight", (int) ResultCacheSettings.DEFAULT_MAX_WEIGHT));
+  }
+
+  private static RefreshSettings refreshSettings(CommandLineOptions options) {
+    return new RefreshSettings(
+            Duration.ofMillis(options.integer("refresh-max-stale-ms", (int) RefreshSettings.DEFAULT_MAX_STALE.toMillis())),
+            Duration.ofMillis(options.integer("refresh-min-stale-ms", (int) RefreshSettings.DEFAULT_MIN_STALE.toMillis())),
+            Duration.ofMillis(options.integer("commit-interval-ms", (int) RefreshSettings.DEFAULT_COMMIT_INTERVAL.toMillis())));
+  }
+
+  private static AdmissionSettings admissionSettings(CommandLineOptions options) {
+    var admissionSettings = new AdmissionSettings(
+            options.integer("max-concurrent-searches", Runtime.getRuntime().availableProcessors()),
+            options.integer("max-queued-searches", AdmissionSettings.DEFAULT_MAX_QUEUED_SEARCHES),
+            Duration.ofMillis(options.integer("max-queue-wait-ms", (int) AdmissionSettings.DEFAULT_MAX_QUEUE_WAIT.toMillis())),
+            Duration.ofMillis(options.integer("search-budget-ms", (int) AdmissionSettings.DEFAULT_SEARCH_BUDGET.toMillis())));
+    log.info("Admission control: maxConcurrentSearches={} maxQueuedSearches={} maxQueueWait={} searchBudget={}",
+            admissionSettings.maxConcurrentSearches(), admissionSettings.maxQueuedSearches(), admissionSettings.maxQueueWait(),
+            admissionSettings.searchBudget());
+    return admissionSettings;
+  }
+
+  private static SearchConcurrency searchConcurrency(CommandLineOptions options, ExecutorService searchExecutor) {
+    var searchConcurrency = new SearchConcurrency(searchExecutor,
+            options.integer("slice-max-docs", SearchConcurrency.DEFAULT_MAX_DOCS_PER_SLICE),
+            options.integer("slice-max-segments", SearchConcurrency.DEFAULT_MAX_SEGMENTS_PER_SLICE));
+    log.info("Search concurrency: executor={} maxDocsPerSlice={} maxSegmentsPerSlice={}",
+            options.string("search-executor", "none"), searchConcurrency.maxDocsPerSlice(), searchConcurrency.maxSegmentsPerSlice());
+    return searchConcurrency;
+  }
+
+  private static ConnectionSettings connectionSettings(CommandLineOptions options) {
+    return new ConnectionSettings(
+            options.integer("socket-backlog", ConnectionSettings.DEFAULT_BACKLOG),
+            Duration.ofMillis(options.integer("socket-timeout-ms", (int) ConnectionSettings.DEFAULT_IDLE_TIMEOUT.toMillis())));
+  }
+
   /**
    * Run the HTTP server. This runs continuously until the process is stopped with "Ctrl + C".
+   *
+   * @param servingMode "classic" for the HttpCore5 classic server, which serves each connection on a platform thread,
+   *                    or "virtual-threads" to serve each connection on a virtual thread.
    */
-  private static void runServerContinuously(TimeZoneSearchSystem timeZoneSearchSystem) throws IOException {
-    var simulatorHttpHandler = new HttpHandler(timeZoneSearchSystem);
+  private static void runServerContinuously(TimeZoneSearchSystem timeZoneSearchSystem, AdmissionSettings admissionSettings,
+                                            ConnectionSettings connectionSettings, String servingMode) throws IOException {
+    Metrics metrics = timeZoneSearchSystem.metrics();
 
+    // The single searches and the batches share one admission control, so together they stay within the limit.
+    var admissionControl = new AdmissionControl(admissionSettings, metrics);
+    Map<String, HttpRequestHandler> routes = Map.of(
+            "/batch", metered(new BatchHttpHandler(timeZoneSearchSystem, admissionControl), metrics, "batch"),
+            "/documents", metered(new DocumentHttpHandler(timeZoneSearchSystem), metrics, "documents"),
+            "/metrics", new MetricsHttpHandler(timeZoneSearchSystem),
+            "*", metered(new HttpHandler(timeZoneSearchSystem, admissionControl), metrics, "search"));
+
+    var exceptionListener = new LoggingExceptionListener(metrics);
+    switch (servingMode) {
+      case "classic" -> runClassicServerContinuously(routes, connectionSettings, exceptionListener);
+      case "virtual-threads" -> runVirtualThreadServerContinuously(routes, connectionSettings, exceptionListener);
+      default -> throw new IllegalArgumentException("Unknown serving mode '%s'. Expected one of: classic, virtual-threads".formatted(servingMode));
+    }
+  }
+
+  /**
+   * Count and time the requests of a route. The "/metrics" route itself is not metered, so that scraping doesn't show up
+   * in the numbers it reports.
+   */
+  private static HttpRequestHandler metered(HttpRequestHandler handler, Metrics metrics, String route) {
+    return new MeteredHttpHandler(handler, metrics.route(route));
+  }
+
+  private static void runClassicServerContinuously(Map<String, HttpRequestHandler> routes, ConnectionSettings connectionSettings,
+                                                   LoggingExceptionListener exceptionListener) throws IOException {
     ServerBootstrap builder = ServerBootstrap.bootstrap()
             .setListenerPort(PORT)
-            .setExceptionListener(new LoggingExceptionListener())
-            .register("*", simulatorHttpHandler);
+            .setSocketConfig(SocketConfig.custom()
+                    .setBacklogSize(connectionSettings.backlog())
+                    .setSoTimeout(Timeout.ofMilliseconds(connectionSettings.idleTimeoutMillis()))
+                    .build())
+            .setExceptionListener(exceptionListener);
+    routes.forEach(builder::register);
 
     try (HttpServer server = builder.create()) {
       server.start();
@@ -55,4 +200,16 @@ public class Runner {
       log.error("The server was interrupted.", e);
     }
   }
+
+  private static void runVirtualThreadServerContinuously(Map<String, HttpRequestHandler> routes, ConnectionSettings connectionSettings,
+                                                         LoggingExceptionListener exceptionListener) throws IOException {
+    try (var server = new VirtualThreadHttpServer(PORT, routes, connectionSettings, exceptionListener)) {
+      server.start();
+      Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+      log.info("The Lucene search server is serving traffic on port {} (one virtual thread per connection) ...", PORT);
+      server.awaitTermination();
+    } catch (InterruptedException e) {
+      log.error("The server was interrupted.", e);
+    }
+  }
 }
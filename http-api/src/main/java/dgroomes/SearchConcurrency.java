@@ -0,0 +1,69 @@
+package dgroomes;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Settings that control whether a search uses more than one thread.
+ * <p>
+ * When an executor is given, the {@link IndexSearcher} splits the index into "slices" (groups of segments) and searches
+ * the slices in parallel on the executor. The slicing policy decides how much work goes into each slice. Fewer, larger
+ * slices have less coordination overhead. More, smaller slices spread the work across more cores. This only matters for
+ * an index with more than one segment.
+ *
+ * @param executor            the executor for searching slices and counting facets, or null to search on the calling
+ *                            thread only
+ * @param maxDocsPerSlice     a slice holds segments until it reaches this many documents
+ * @param maxSegmentsPerSlice a slice holds at most this many segments
+ */
+public record SearchConcurrency(Executor executor, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+
+  // These are the same as Lucene's defaults. See IndexSearcher.
+  public static final int DEFAULT_MAX_DOCS_PER_SLICE = 250_000;
+  public static final int DEFAULT_MAX_SEGMENTS_PER_SLICE = 5;
+
+  public SearchConcurrency {
+    if (maxDocsPerSlice < 1 || maxSegmentsPerSlice < 1) {
+      throw new IllegalArgumentException("The slice limits must be at least 1 but were maxDocsPerSlice=%d maxSegmentsPerSlice=%d"
+              .formatted(maxDocsPerSlice, maxSegmentsPerSlice));
+    }
+  }
+
+  /**
+   * Search on the calling thread only. This is how Lucene behaves by default.
+   */
+  public static SearchConcurrency sequential() {
+    return new SearchConcurrency(null, DEFAULT_MAX_DOCS_PER_SLICE, DEFAULT_MAX_SEGMENTS_PER_SLICE);
+  }
+
+  boolean isConcurrent() {
+    return executor != null;
+  }
+
+  IndexSearcher newSearcher(IndexReader reader) {
+    // These are local variables on purpose. An anonymous class copies the local variables it captures before the super
+    // constructor runs, and the IndexSearcher constructor may already ask for the slices.
+    int maxDocs = maxDocsPerSlice;
+    int maxSegments = maxSegmentsPerSlice;
+    return new IndexSearcher(reader, executor) {
+      @Override
+      protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+        return slices(leaves, maxDocs, maxSegments);
+      }
+    };
+  }
+
+  SearcherFactory searcherFactory() {
+    return new SearcherFactory() {
+      @Override
+      public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        return SearchConcurrency.this.newSearcher(reader);
+      }
+    };
+  }
+}
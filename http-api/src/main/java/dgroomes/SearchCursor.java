@@ -0,0 +1,73 @@
+package dgroomes;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.OptionalLong;
+
+/**
+ * A position in a ranked list of search results. The next page of results starts after this position.
+ * <p>
+ * The cursor is handed to clients as an opaque string. It's only meaningful for the same query against the same index
+ * snapshot because it refers to a Lucene document ID.
+ *
+ * @param offsetMillis the sort value of the position when the results are sorted by offset (see
+ *                     {@link SortOrder#OFFSET}), or empty when they are sorted by relevance
+ */
+public record SearchCursor(float score, int doc, OptionalLong offsetMillis) {
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+  private static final int RELEVANCE_LENGTH = Float.BYTES + Integer.BYTES;
+  private static final int OFFSET_LENGTH = RELEVANCE_LENGTH + Long.BYTES;
+
+  static SearchCursor after(ScoreDoc scoreDoc) {
+    if (scoreDoc instanceof FieldDoc fieldDoc) {
+      return new SearchCursor(fieldDoc.score, fieldDoc.doc, OptionalLong.of((Long) fieldDoc.fields[0]));
+    }
+    return new SearchCursor(scoreDoc.score, scoreDoc.doc, OptionalLong.empty());
+  }
+
+  SortOrder sortOrder() {
+    return offsetMillis.isPresent() ? SortOrder.OFFSET : SortOrder.RELEVANCE;
+  }
+
+  /**
+   * @return a {@link FieldDoc} when the results are sorted by offset, otherwise a plain {@link ScoreDoc}
+   */
+  ScoreDoc toScoreDoc() {
+    if (offsetMillis.isPresent()) {
+      return new FieldDoc(doc, score, new Object[]{offsetMillis.getAsLong()});
+    }
+    return new ScoreDoc(doc, score);
+  }
+
+  String encode() {
+    ByteBuffer buffer = ByteBuffer.allocate(offsetMillis.isPresent() ? OFFSET_LENGTH : RELEVANCE_LENGTH);
+    buffer.putFloat(score).putInt(doc);
+    offsetMillis.ifPresent(buffer::putLong);
+    return ENCODER.encodeToString(buffer.array());
+  }
+
+  /**
+   * Decode a cursor that was previously created by {@link #encode()}.
+   *
+   * @throws IllegalArgumentException if the string is not a valid cursor
+   */
+  static SearchCursor decode(String encoded) {
+    byte[] bytes = DECODER.decode(encoded);
+    if (bytes.length != RELEVANCE_LENGTH && bytes.length != OFFSET_LENGTH) {
+      throw new IllegalArgumentException("Malformed cursor: '%s'".formatted(encoded));
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    float score = buffer.getFloat();
+    int doc = buffer.getInt();
+    if (doc < 0) {
+      throw new IllegalArgumentException("Malformed cursor: '%s'".formatted(encoded));
+    }
+    OptionalLong offsetMillis = buffer.hasRemaining() ? OptionalLong.of(buffer.getLong()) : OptionalLong.empty();
+    return new SearchCursor(score, doc, offsetMillis);
+  }
+}
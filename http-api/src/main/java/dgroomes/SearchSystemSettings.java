@@ -0,0 +1,55 @@
+package dgroomes;
+
+/**
+ * The settings of a {@link TimeZoneSearchSystem}. Start from {@link #defaults()} and change what you need, for example:
+ * <pre>
+ *   SearchSystemSettings.defaults()
+ *           .withFacetBackend(FacetBackend.SORTED_SET)
+ *           .withResultCache(ResultCacheSettings.disabled())
+ * </pre>
+ *
+ * @param searchConcurrency whether a search uses more than one thread. See {@link SearchConcurrency}.
+ * @param facetBackend      how the facet labels are indexed and counted
+ * @param resultCache       the cache of full search results. See {@link ResultCacheSettings}.
+ * @param refresh           how quickly changes become visible and durable. See {@link RefreshSettings}.
+ * @param indexSuffixes     also index the display names into a suffix companion field, and rewrite leading and infix
+ *                          wildcards on the display name to use it. See {@link SuffixField}.
+ */
+public record SearchSystemSettings(SearchConcurrency searchConcurrency, FacetBackend facetBackend,
+                                   ResultCacheSettings resultCache, RefreshSettings refresh, boolean indexSuffixes) {
+
+  public SearchSystemSettings {
+    if (searchConcurrency == null || facetBackend == null || resultCache == null || refresh == null) {
+      throw new IllegalArgumentException("Invalid search system settings: searchConcurrency=%s facetBackend=%s resultCache=%s refresh=%s"
+              .formatted(searchConcurrency, facetBackend, resultCache, refresh));
+    }
+  }
+
+  /**
+   * Sequential search, the taxonomy facet backend, the default result cache and refresh settings, and no suffix index.
+   */
+  public static SearchSystemSettings defaults() {
+    return new SearchSystemSettings(SearchConcurrency.sequential(), FacetBackend.TAXONOMY, ResultCacheSettings.defaults(),
+            RefreshSettings.defaults(), false);
+  }
+
+  public SearchSystemSettings withSearchConcurrency(SearchConcurrency searchConcurrency) {
+    return new SearchSystemSettings(searchConcurrency, facetBackend, resultCache, refresh, indexSuffixes);
+  }
+
+  public SearchSystemSettings withFacetBackend(FacetBackend facetBackend) {
+    return new SearchSystemSettings(searchConcurrency, facetBackend, resultCache, refresh, indexSuffixes);
+  }
+
+  public SearchSystemSettings withResultCache(ResultCacheSettings resultCache) {
+    return new SearchSystemSettings(searchConcurrency, facetBackend, resultCache, refresh, indexSuffixes);
+  }
+
+  public SearchSystemSettings withRefresh(RefreshSettings refresh) {
+    return new SearchSystemSettings(searchConcurrency, facetBackend, resultCache, refresh, indexSuffixes);
+  }
+
+  public SearchSystemSettings withIndexSuffixes(boolean indexSuffixes) {
+    return new SearchSystemSettings(searchConcurrency, facetBackend, resultCache, refresh, indexSuffixes);
+  }
+}
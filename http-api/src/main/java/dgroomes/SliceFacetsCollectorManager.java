@@ -0,0 +1,47 @@
+package dgroomes;
+
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectorManager;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Collects the matching documents for facet counting, keeping one {@link FacetsCollector} per slice.
+ * <p>
+ * Lucene's own {@link org.apache.lucene.facet.FacetsCollectorManager} merges the per-slice collectors into one. Keeping
+ * them apart lets us count the facets of each slice in parallel and then merge the (small) counts instead.
+ * <p>
+ * The matches are recorded against the leaves of the snapshot's reader, even when the search runs on a wrapper of that
+ * reader (see {@link org.apache.lucene.index.ExitableDirectoryReader}). The wrapper has the same segments and doc IDs,
+ * but the facet counting must not see it: the sorted-set state only accepts matches from the reader it was built for,
+ * and the facets are counted after the time budget may have run out.
+ */
+class SliceFacetsCollectorManager implements CollectorManager<FacetsCollector, List<FacetsCollector>> {
+
+  private final List<LeafReaderContext> leaves;
+
+  /**
+   * @param leaves the leaves of the snapshot's reader
+   */
+  SliceFacetsCollectorManager(List<LeafReaderContext> leaves) {
+    this.leaves = leaves;
+  }
+
+  @Override
+  public FacetsCollector newCollector() {
+    return new FacetsCollector() {
+      @Override
+      protected void doSetNextReader(LeafReaderContext context) throws IOException {
+        super.doSetNextReader(leaves.get(context.ord));
+      }
+    };
+  }
+
+  @Override
+  public List<FacetsCollector> reduce(Collection<FacetsCollector> collectors) {
+    return List.copyOf(collectors);
+  }
+}
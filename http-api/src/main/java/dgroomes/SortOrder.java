@@ -0,0 +1,19 @@
+package dgroomes;
+
+/**
+ * The order of the hits of a search.
+ */
+public enum SortOrder {
+
+  /**
+   * The best matches first.
+   */
+  RELEVANCE,
+
+  /**
+   * The smallest raw offset from GMT first, for example "PT-10H" before "PT1H". The hits are sorted by the doc values
+   * of the offset while they're collected, so only the page is kept in memory, the same as for relevance. Hits with
+   * the same offset are in index order.
+   */
+  OFFSET
+}
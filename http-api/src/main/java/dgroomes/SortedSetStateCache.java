@@ -0,0 +1,41 @@
+package dgroomes;
+
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+
+/**
+ * Holds the {@link SortedSetDocValuesReaderState} of the current reader.
+ * <p>
+ * The state maps the per-segment facet label ordinals to global ordinals. It's costly to build relative to a search, so
+ * it's built once per reader generation and shared by every search on that reader. When the searcher manager refreshes
+ * to a new reader, the first search on the new reader replaces the state.
+ */
+class SortedSetStateCache {
+
+  private final FacetsConfig facetsConfig;
+  private volatile SortedSetDocValuesReaderState current;
+
+  SortedSetStateCache(FacetsConfig facetsConfig) {
+    this.facetsConfig = facetsConfig;
+  }
+
+  SortedSetDocValuesReaderState get(IndexReader reader) throws IOException {
+    SortedSetDocValuesReaderState state = current;
+    if (state != null && state.getReader() == reader) {
+      return state;
+    }
+
+    synchronized (this) {
+      state = current;
+      if (state == null || state.getReader() != reader) {
+        state = new DefaultSortedSetDocValuesReaderState(reader, facetsConfig);
+        current = state;
+      }
+      return state;
+    }
+  }
+}
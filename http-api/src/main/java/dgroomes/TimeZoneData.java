@@ -0,0 +1,38 @@
+package dgroomes;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.TimeZone;
+
+/**
+ * The data of one time zone document.
+ * <p>
+ * At startup the index is filled from the JDK's time zones, but documents can also be added and updated while the
+ * server is running. Those don't have to be real time zones, so the index stores everything needed to show a hit
+ * instead of looking the time zone up by its ID.
+ *
+ * @param offset the raw offset from GMT, not counting daylight savings time
+ */
+public record TimeZoneData(String id, String displayName, Duration offset, boolean observesDaylightTime) {
+
+  public TimeZoneData {
+    Objects.requireNonNull(id, "id");
+    Objects.requireNonNull(displayName, "displayName");
+    Objects.requireNonNull(offset, "offset");
+    if (id.isBlank()) {
+      throw new IllegalArgumentException("The time zone ID must not be blank");
+    }
+  }
+
+  public static TimeZoneData of(TimeZone timeZone) {
+    return new TimeZoneData(timeZone.getID(), timeZone.getDisplayName(), Duration.ofMillis(timeZone.getRawOffset()),
+            timeZone.observesDaylightTime());
+  }
+
+  /**
+   * A human-readable description of the offset, like "PT-5H" or "PT5H30M".
+   */
+  public String offsetDescription() {
+    return offset.toString();
+  }
+}
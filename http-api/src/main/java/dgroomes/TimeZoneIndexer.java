@@ -1,57 +1,156 @@
 package dgroomes;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.facet.FacetField;
 import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
 import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
-import java.time.Duration;
 import java.util.TimeZone;
 
 /**
  * Index time zone display names. For example "Alaska Standard Time", "Armenia Standard Time", "Chile Time", etc.
- *
- * Note: it would be cool to also index the offset from GMT.
+ * <p>
+ * Nothing is stored. What a hit shows (the ID, the display name, the offset and the daylight savings time flag) is
+ * kept in doc values instead, which are read column by column. See {@link HitLoader}. The raw offset doc values are also
+ * the sort key when the hits are sorted by offset.
  */
 public class TimeZoneIndexer {
 
   public static final String FIELD_ID = "id";
+
+  /**
+   * The time zone ID as a single, untokenized term. The "id" field is tokenized for searching, so "America/New_York" is
+   * split into several terms and can't identify one document. This field can, so it's the key for updates and deletes.
+   */
+  public static final String FIELD_ID_KEYWORD = "id_keyword";
   public static final String FIELD_OFFSET_DESCRIPTION = "offset";
+
+  /**
+   * The raw offset from GMT in milliseconds, as numeric doc values. This is the sort key for {@link SortOrder#OFFSET}.
+   */
+  public static final String FIELD_OFFSET_MILLIS = "offset_millis";
   public static final String FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME = "observes_daylight_savings_time";
   public static final String FIELD_TIME_ZONE_DISPLAY_NAME = "time_zone_display_name";
 
   private final IndexWriter indexWriter;
   private final TaxonomyWriter taxonomyWriter;
+  private final FacetBackend facetBackend;
+  private final boolean indexSuffixes;
   private final FacetsConfig facetsConfig = new FacetsConfig();
 
   public TimeZoneIndexer(IndexWriter indexWriter, TaxonomyWriter taxonomyWriter) {
+    this(indexWriter, taxonomyWriter, FacetBackend.TAXONOMY);
+  }
+
+  /**
+   * @param taxonomyWriter the taxonomy writer. This is only used by the {@link FacetBackend#TAXONOMY} backend and may
+   *                       be null for the others.
+   */
+  public TimeZoneIndexer(IndexWriter indexWriter, TaxonomyWriter taxonomyWriter, FacetBackend facetBackend) {
+    this(indexWriter, taxonomyWriter, facetBackend, false);
+  }
+
+  /**
+   * @param indexSuffixes also index the display name into the suffix companion field. The index writer's analyzer must
+   *                      be wrapped with {@link SuffixField#wrap} for the {@link #FIELD_TIME_ZONE_DISPLAY_NAME} field.
+   */
+  public TimeZoneIndexer(IndexWriter indexWriter, TaxonomyWriter taxonomyWriter, FacetBackend facetBackend,
+                         boolean indexSuffixes) {
     this.indexWriter = indexWriter;
     this.taxonomyWriter = taxonomyWriter;
+    this.facetBackend = facetBackend;
+    this.indexSuffixes = indexSuffixes;
   }
 
   public void index(TimeZone timeZone) throws IOException {
+    index(TimeZoneData.of(timeZone));
+  }
+
+  /**
+   * Add a document. This does not check for an existing document with the same ID.
+   *
+   * @return the sequence number of the change. See {@link IndexWriter#addDocument}.
+   */
+  public long index(TimeZoneData timeZone) throws IOException {
+    return indexWriter.addDocument(toDocument(timeZone));
+  }
+
+  /**
+   * Replace the document with the same ID, or add it if there isn't one. The delete and the add are atomic: a reader
+   * sees either the old document or the new one.
+   *
+   * @return the sequence number of the change
+   */
+  public long update(TimeZoneData timeZone) throws IOException {
+    return indexWriter.updateDocument(idTerm(timeZone.id()), toDocument(timeZone));
+  }
+
+  /**
+   * Delete the document with the given ID, if there is one.
+   *
+   * @return the sequence number of the change
+   */
+  public long delete(String id) throws IOException {
+    return indexWriter.deleteDocuments(idTerm(id));
+  }
+
+  private static Term idTerm(String id) {
+    return new Term(FIELD_ID_KEYWORD, id);
+  }
+
+  private Document toDocument(TimeZoneData timeZone) throws IOException {
     var doc = new Document();
-    doc.add(new TextField(FIELD_ID, timeZone.getID(), Field.Store.YES));
-    doc.add(new FacetField(FIELD_OFFSET_DESCRIPTION, getOffsetDescription(timeZone)));
-    doc.add(new FacetField(FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME, Boolean.toString(timeZone.observesDaylightTime())));
+    doc.add(new TextField(FIELD_ID, timeZone.id(), Field.Store.NO));
+    doc.add(new BinaryDocValuesField(FIELD_ID, new BytesRef(timeZone.id())));
+    doc.add(new StringField(FIELD_ID_KEYWORD, timeZone.id(), Field.Store.NO));
+
+    // The facet fields can't be read back for a hit, so the offset and the daylight savings time flag are also kept as
+    // numeric doc values. The offset description is derived from the raw offset when the hit is shown.
+    doc.add(facetField(FIELD_OFFSET_DESCRIPTION, timeZone.offsetDescription()));
+    doc.add(new NumericDocValuesField(FIELD_OFFSET_MILLIS, timeZone.offset().toMillis()));
+    doc.add(facetField(FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME, Boolean.toString(timeZone.observesDaylightTime())));
+    doc.add(new NumericDocValuesField(FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME, timeZone.observesDaylightTime() ? 1 : 0));
 
     // I'm so confused. When you treat a field as a facet, you can't get the field in the result, and you can't even
     // search on the field in the query. So can I just add the field as a regular field? Yeah, it looks like it but that's
     // roundabout and inefficient?
-    doc.add(new TextField(FIELD_TIME_ZONE_DISPLAY_NAME, timeZone.getDisplayName(), Field.Store.YES));
-    doc.add(new FacetField(FIELD_TIME_ZONE_DISPLAY_NAME, timeZone.getDisplayName()));
+    doc.add(new TextField(FIELD_TIME_ZONE_DISPLAY_NAME, timeZone.displayName(), Field.Store.NO));
+    // Many time zones share a display name, like "Central European Standard Time". Sorted doc values keep each distinct
+    // name once per segment.
+    doc.add(new SortedDocValuesField(FIELD_TIME_ZONE_DISPLAY_NAME, new BytesRef(timeZone.displayName())));
+    doc.add(facetField(FIELD_TIME_ZONE_DISPLAY_NAME, timeZone.displayName()));
+    if (indexSuffixes) {
+      doc.add(new TextField(SuffixField.companion(FIELD_TIME_ZONE_DISPLAY_NAME), timeZone.displayName(), Field.Store.NO));
+    }
+
+    return switch (facetBackend) {
+      case TAXONOMY -> facetsConfig.build(taxonomyWriter, doc);
+      case SORTED_SET -> facetsConfig.build(doc);
+    };
+  }
 
-    Document build = facetsConfig.build(taxonomyWriter, doc);
-    indexWriter.addDocument(build);
+  private IndexableField facetField(String dim, String label) {
+    return switch (facetBackend) {
+      case TAXONOMY -> new FacetField(dim, label);
+      case SORTED_SET -> new SortedSetDocValuesFacetField(dim, label);
+    };
   }
 
   public static String getOffsetDescription(TimeZone timeZone) {
     // If we use the Duration class, we'll get a human-readable string for the offset instead of the raw offset in
     // milliseconds.
-      return Duration.ofMillis(timeZone.getRawOffset()).toString();
+    return TimeZoneData.of(timeZone).offsetDescription();
   }
 }
@@ -1,15 +1,15 @@
 package dgroomes;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.facet.FacetResult;
 import org.apache.lucene.facet.Facets;
 import org.apache.lucene.facet.FacetsCollector;
 import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
-import org.apache.lucene.facet.taxonomy.TaxonomyReader;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager.SearcherAndTaxonomy;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
@@ -19,9 +19,22 @@ import org.apache.lucene.store.Directory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class encapsulates a "search system".
@@ -29,19 +42,126 @@ import java.util.stream.Stream;
  * It exposes a search API via a public method, and it encapsulates the internals of the data-under-search (the Lucene index).
  * The data-under-search is toy data. It's a set of time zones names.
  */
-public class TimeZoneSearchSystem {
+public class TimeZoneSearchSystem implements Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(TimeZoneSearchSystem.class);
+  private static final int QUERY_CACHE_SIZE = 1_000;
+
+  /**
+   * The key of the source data fingerprint in the commit user data. See {@link #indexData()}.
+   */
+  private static final String FINGERPRINT_KEY = "source_fingerprint";
+
+  /**
+   * Bump this when the shape of the documents changes, so that an index written by an older version is rebuilt.
+   */
+  private static final int SCHEMA_VERSION = 2;
+
+  /**
+   * Sort by the raw offset doc values. Ties are broken by doc ID, which the collector does on its own.
+   */
+  private static final Sort OFFSET_SORT = new Sort(new SortField(TimeZoneIndexer.FIELD_OFFSET_MILLIS, SortField.Type.LONG));
+  private static final List<String> FACET_DIMS = List.of(
+          TimeZoneIndexer.FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME,
+          TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME,
+          TimeZoneIndexer.FIELD_OFFSET_DESCRIPTION);
 
   private final Directory indexDir;
   private final Directory taxonomyDir;
   private final Analyzer analyzer;
+  private final SearchConcurrency searchConcurrency;
+  private final FacetBackend facetBackend;
+  private final RefreshSettings refreshSettings;
+
+  /**
+   * Whether the display names are also indexed into a suffix companion field, for fast leading wildcard searches. See
+   * {@link SuffixField}.
+   */
+  private final boolean indexSuffixes;
   private final FacetsConfig facetsConfig = new FacetsConfig();
 
+  /**
+   * The writers stay open for the lifetime of the search system so that documents can be added, updated and deleted
+   * while it's serving searches. The taxonomy writer is null for the sorted set facet backend.
+   */
+  private IndexWriter indexWriter;
+  private DirectoryTaxonomyWriter taxonomyWriter;
+  private TimeZoneIndexer indexer;
+
+  /**
+   * Reopens the readers from the writer so that changes become visible without a commit. See {@link RefreshSettings}.
+   */
+  private ControlledRealTimeReopenThread<?> reopenThread;
+  private final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("index-committer").daemon().factory());
+
+  /**
+   * Searches share long-lived, reference-counted readers. Opening readers is expensive relative to the search itself,
+   * and sharing a reader means the segment-level caches and the query cache stay warm across requests.
+   * <p>
+   * The taxonomy facet backend needs a pair of index reader and taxonomy reader that are refreshed together. The sorted
+   * set facet backend only needs an index reader. Exactly one of these managers is set after the index has been built.
+   * The managers open their readers from the index writer, not from the directory, so they see uncommitted changes.
+   */
+  private SearcherTaxonomyManager searcherTaxonomyManager;
+  private SearcherManager searcherManager;
+  private final SortedSetStateCache sortedSetStateCache = new SortedSetStateCache(facetsConfig);
+
+  /**
+   * Compiled queries keyed by the normalized keyword. Search traffic tends to be skewed towards a small set of popular
+   * keywords, and parsing and analyzing the keyword (twice, once for each field) is repeated work for those. Lucene
+   * {@link Query} objects are immutable so it's safe to share them across threads.
+   */
+  private final LruCache<String, Query> queryCache = new LruCache<>(QUERY_CACHE_SIZE);
+
+  /**
+   * Full search results, keyed by the search parameters and the version of the index reader they were computed on.
+   * Popular searches are repeated many times while the index doesn't change, and a cached result skips the search, the
+   * facet counting and the stored field loads altogether. When the index is refreshed, the reader version changes so
+   * the old entries are never hit again and age out of the cache. A near-real-time reopen after an add, update or
+   * delete also changes the reader version. This is null when the cache is disabled.
+   */
+  private final LruCache<ResultCacheKey, SearchResult> resultCache;
+
+  private record ResultCacheKey(String keyword, int pageSize, Optional<SearchCursor> after, SortOrder sortOrder,
+                                long readerVersion) {}
+
+  /**
+   * {@link StandardQueryParser} holds mutable configuration and is not safe to share across threads, so each thread
+   * gets its own. The analyzer, on the other hand, is thread-safe and is shared.
+   */
+  private final ThreadLocal<StandardQueryParser> queryParsers;
+
+  /**
+   * The latency of each phase of a search, and the other metrics of the service. See {@link Metrics}.
+   */
+  private final Metrics metrics = new Metrics();
+
   public TimeZoneSearchSystem(Directory indexDir, Directory taxonomyDir, Analyzer analyzer) {
+    this(indexDir, taxonomyDir, analyzer, SearchSystemSettings.defaults());
+  }
+
+  /**
+   * @param taxonomyDir the directory of the taxonomy index. This is only used by the {@link FacetBackend#TAXONOMY}
+   *                    backend and may be null for the others.
+   */
+  public TimeZoneSearchSystem(Directory indexDir, Directory taxonomyDir, Analyzer analyzer, SearchSystemSettings settings) {
     this.indexDir = indexDir;
     this.taxonomyDir = taxonomyDir;
     this.analyzer = analyzer;
+    this.searchConcurrency = settings.searchConcurrency();
+    this.facetBackend = settings.facetBackend();
+    this.refreshSettings = settings.refresh();
+    this.indexSuffixes = settings.indexSuffixes();
+    ResultCacheSettings resultCacheSettings = settings.resultCache();
+    this.resultCache = resultCacheSettings.isEnabled()
+            ? new LruCache<>(resultCacheSettings.maxEntries(), resultCacheSettings.maxWeight(), TimeZoneSearchSystem::weigh)
+            : null;
+    this.queryParsers = ThreadLocal.withInitial(() -> {
+      StandardQueryParser queryParser = new StandardQueryParser(analyzer);
+      queryParser.setAllowLeadingWildcard(true);
+      return queryParser;
+    });
   }
 
   /**
@@ -54,15 +174,33 @@ public class TimeZoneSearchSystem {
    * It's a trade-off.
    */
   public static TimeZoneSearchSystem init(Directory indexDir, Analyzer analyzer, Directory taxonomyDir) {
-    TimeZoneSearchSystem timeZoneSearchSystem = new TimeZoneSearchSystem(indexDir, taxonomyDir, analyzer);
+    return init(indexDir, analyzer, taxonomyDir, SearchSystemSettings.defaults());
+  }
+
+  /**
+   * Like {@link #init(Directory, Analyzer, Directory)}, but with settings other than the defaults.
+   */
+  public static TimeZoneSearchSystem init(Directory indexDir, Analyzer analyzer, Directory taxonomyDir,
+                                          SearchSystemSettings settings) {
+    TimeZoneSearchSystem timeZoneSearchSystem = new TimeZoneSearchSystem(indexDir, taxonomyDir, analyzer, settings);
     timeZoneSearchSystem.indexData();
+    timeZoneSearchSystem.openSearcherManager();
+    timeZoneSearchSystem.startRefreshing();
     return timeZoneSearchSystem;
   }
 
   /**
-   * The results of a search. It contains the "hits" (the matching documents) and the facet results.
+   * The results of a search. It contains one page of "hits" (the matching documents) and the facet results.
+   * <p>
+   * The facet results and the total hit count describe the full set of matching documents, not just the page. The next
+   * cursor is present when there are more hits after this page.
+   * <p>
+   * A partial result comes from a search that ran out of its time budget. Its hits, counts and facets only cover the
+   * documents that were matched in time, so they may be missing some of the best hits. They are empty if the budget ran
+   * out before matching started.
    */
-  public record SearchResult(List<Document> hits, List<FacetResult> facetResults) {}
+  public record SearchResult(List<TimeZoneData> hits, List<FacetResult> facetResults, long totalHits,
+                             Optional<SearchCursor> nextCursor, boolean partial) {}
 
   /**
    * Search for the given keyword.
@@ -71,115 +209,635 @@ public class TimeZoneSearchSystem {
    * Lucene API makes you do two separate searches? Wouldn't you want to just "do a search" and get both the regular
    * results (the "hits") AND the facet results? That way, it's one search and then the user has the option to narrow
    * down the results using the facets if they're satisfied with the top hits.
+   *
+   * @param pageSize the maximum number of hits to return
+   * @param after    the position to resume from, as returned in a previous result's next cursor, or empty for the first
+   *                 page
+   */
+  public SearchResult search(String keyword, int pageSize, Optional<SearchCursor> after) {
+    return search(keyword, pageSize, after, Optional.empty());
+  }
+
+  /**
+   * Search for the given keyword within a time budget.
+   *
+   * @param budget the time the search may spend expanding the query's terms, matching and collecting hits. When it runs
+   *               out, the search stops and returns a partial result. A search that runs out while still expanding
+   *               terms (a leading wildcard on a big term dictionary, say) has no hits yet, so its result is empty. The
+   *               parsing of the query and the counting of the facets are not cut short.
+   */
+  public SearchResult search(String keyword, int pageSize, Optional<SearchCursor> after, Optional<Duration> budget) {
+    return search(keyword, pageSize, after, budget, SortOrder.RELEVANCE);
+  }
+
+  /**
+   * Search for the given keyword within a time budget, and sort the hits in the given order.
+   *
+   * @param after the position to resume from. It must come from a search with the same sort order.
    */
-  public SearchResult search(String keyword) {
-    IndexReader indexReader;
-    TaxonomyReader taxonomyReader;
+  public SearchResult search(String keyword, int pageSize, Optional<SearchCursor> after, Optional<Duration> budget,
+                             SortOrder sortOrder) {
+    Snapshot snapshot = acquire();
 
+    // Every acquire must be paired with a release. The reader is reference-counted, and it's only closed when it's been
+    // replaced by a refresh and the last in-flight search has released it.
     try {
-      indexReader = DirectoryReader.open(indexDir);
-      taxonomyReader = new DirectoryTaxonomyReader(taxonomyDir);
+      return searchCached(snapshot, keyword, pageSize, after, budget, sortOrder);
+    } finally {
+      release(snapshot);
+    }
+  }
+
+  /**
+   * Search for many keywords at once, each within the time budget. Every keyword is searched against the same snapshot
+   * of the index, so the results are consistent with each other even if the index is refreshed in the middle of the
+   * batch. The keywords are searched concurrently on virtual threads, but at most {@code parallelism} of them at a time.
+   * <p>
+   * A caller that has been admitted to run a certain number of searches (see {@link AdmissionControl}) passes that
+   * number, so that a single batch can't take up more cores than it was given.
+   *
+   * @return the first page of results of each keyword, in the same order as the keywords
+   */
+  public List<SearchResult> searchBatch(List<String> keywords, int pageSize, Optional<Duration> budget, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("The parallelism must be at least 1 but was %d".formatted(parallelism));
+    }
+    Snapshot snapshot = acquire();
+    var running = new Semaphore(parallelism);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<SearchResult>> futures = keywords.stream()
+              .map(keyword -> executor.submit(() -> {
+                running.acquire();
+                try {
+                  return searchCached(snapshot, keyword, pageSize, Optional.empty(), budget, SortOrder.RELEVANCE);
+                } finally {
+                  running.release();
+                }
+              }))
+              .toList();
+
+      var results = new ArrayList<SearchResult>(futures.size());
+      for (Future<SearchResult> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException("Unexpected error while searching", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while searching", e);
+    } finally {
+      release(snapshot);
+    }
+  }
+
+  /**
+   * Add a time zone document. It becomes visible to searches within the max stale interval, or sooner if you call
+   * {@link #awaitVisible(long)}.
+   *
+   * @return the generation of the change. Pass it to {@link #awaitVisible(long)} to wait until searches see the change.
+   */
+  public long add(TimeZoneData timeZone) {
+    try {
+      return indexer.index(timeZone);
     } catch (IOException e) {
-      throw new IllegalStateException("Unexpected error opening the Lucene index", e);
+      throw new IllegalStateException("Unexpected error while adding the time zone '%s'".formatted(timeZone.id()), e);
     }
+  }
 
-    log.info("Searching for time zones using the keyword: '{}'", keyword);
-    IndexSearcher searcher = new IndexSearcher(indexReader);
-    StoredFields storedFields;
+  /**
+   * Replace the time zone document with the same ID, or add it if there isn't one.
+   *
+   * @return the generation of the change
+   */
+  public long update(TimeZoneData timeZone) {
+    try {
+      return indexer.update(timeZone);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected error while updating the time zone '%s'".formatted(timeZone.id()), e);
+    }
+  }
+
+  /**
+   * Delete the time zone document with the given ID, if there is one.
+   *
+   * @return the generation of the change
+   */
+  public long delete(String id) {
     try {
-      storedFields = searcher.storedFields();
+      return indexer.delete(id);
     } catch (IOException e) {
-      throw new RuntimeException("Something went wrong during search initialization.", e);
+      throw new IllegalStateException("Unexpected error while deleting the time zone '%s'".formatted(id), e);
     }
-    StandardQueryParser queryParser = new StandardQueryParser(new StandardAnalyzer());
-    queryParser.setAllowLeadingWildcard(true);
-    FacetsCollector facetsCollector = new FacetsCollector();
+  }
+
+  /**
+   * Wait until searches see the change with the given generation. This asks the reopen thread to reopen the readers
+   * right away (or after the min stale interval) instead of waiting out the max stale interval.
+   */
+  public void awaitVisible(long generation) {
+    try {
+      reopenThread.waitForGeneration(generation);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for a change to become visible", e);
+    }
+  }
+
+  private SearchResult searchCached(Snapshot snapshot, String keyword, int pageSize, Optional<SearchCursor> after,
+                                    Optional<Duration> budget, SortOrder sortOrder) {
+    if (resultCache == null) {
+      return search(snapshot, keyword, pageSize, after, budget, sortOrder);
+    }
+
+    // A partial result is not cached. The next search for the same keyword might get the full result, for example when
+    // the server is less busy.
+    var key = new ResultCacheKey(normalize(keyword), pageSize, after, sortOrder, snapshot.readerVersion());
+    SearchResult result = resultCache.get(key, k -> search(snapshot, keyword, pageSize, after, budget, sortOrder), r -> !r.partial());
+    log.info("Result cache: {}", resultCache.stats());
+    return result;
+  }
+
+  /**
+   * A rough measure of how much memory a search result takes, for the result cache's weight-based eviction.
+   */
+  private static long weigh(SearchResult result) {
+    long weight = 1 + result.hits().size();
+    for (FacetResult facetResult : result.facetResults()) {
+      weight += facetResult.labelValues.length;
+    }
+    return weight;
+  }
 
+  /**
+   * A point-in-time view of the index that searches run against. For the taxonomy facet backend, this also includes
+   * the matching taxonomy reader. For the sorted set facet backend, it includes the facet state of the reader.
+   */
+  private record Snapshot(IndexSearcher searcher, SearcherAndTaxonomy searcherAndTaxonomy,
+                          SortedSetDocValuesReaderState sortedSetState) {
+
+    /**
+     * The version of the index that this snapshot sees. Any change to the index produces a new version.
+     */
+    long readerVersion() {
+      return ((DirectoryReader) searcher.getIndexReader()).getVersion();
+    }
+  }
+
+  private Snapshot acquire() {
+    try {
+      return switch (facetBackend) {
+        case TAXONOMY -> {
+          SearcherAndTaxonomy searcherAndTaxonomy = searcherTaxonomyManager.acquire();
+          yield new Snapshot(searcherAndTaxonomy.searcher, searcherAndTaxonomy, null);
+        }
+        case SORTED_SET -> {
+          IndexSearcher searcher = searcherManager.acquire();
+          try {
+            yield new Snapshot(searcher, null, sortedSetStateCache.get(searcher.getIndexReader()));
+          } catch (IOException | RuntimeException e) {
+            searcherManager.release(searcher);
+            throw e;
+          }
+        }
+      };
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected error acquiring a searcher", e);
+    }
+  }
+
+  private void release(Snapshot snapshot) {
+    try {
+      switch (facetBackend) {
+        case TAXONOMY -> searcherTaxonomyManager.release(snapshot.searcherAndTaxonomy());
+        case SORTED_SET -> searcherManager.release(snapshot.searcher());
+      }
+    } catch (IOException e) {
+      log.warn("Failed to release the searcher", e);
+    }
+  }
+
+  private SearchResult search(Snapshot snapshot, String keyword, int pageSize, Optional<SearchCursor> after,
+                              Optional<Duration> budget, SortOrder sortOrder) {
+    log.info("Searching for time zones using the keyword: '{}'", keyword);
+    IndexReader reader = snapshot.searcher().getIndexReader();
     List<ScoreDoc> hits;
     List<FacetResult> facetResults;
+    long totalHits;
+    Optional<SearchCursor> nextCursor;
+    boolean partial;
 
     try {
+      IndexSearcher searcher = budget.isPresent() ? timeLimitedSearcher(snapshot, budget.get()) : snapshot.searcher();
+      long start = System.nanoTime();
+      Query query = queryCache.get(normalize(keyword), this::compile);
+      metrics.recordSince(Metrics.Phase.QUERY_PARSE, start);
 
-      Query queryOnId = queryParser.parse(keyword, TimeZoneIndexer.FIELD_ID);
-      Query queryOnDisplayName = queryParser.parse(keyword, TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME);
+      // Only the top "page size" hits are kept in the priority queue, so the cost of collecting the hits depends on the
+      // page size and not on the size of the corpus. The facets collectors still see every matching document. Ask for
+      // one extra hit to find out if there is a next page.
+      ScoreDoc afterDoc = null;
+      if (after.isPresent()) {
+        if (after.get().sortOrder() != sortOrder) {
+          throw new IllegalArgumentException("The cursor is for the %s sort order, not %s".formatted(after.get().sortOrder(), sortOrder));
+        }
+        afterDoc = after.get().toScoreDoc();
+        if (afterDoc.doc >= searcher.getIndexReader().maxDoc()) {
+          throw new IllegalArgumentException("The cursor is past the end of the index");
+        }
+      }
+      int n = pageSize + 1;
 
-      // Note: A Lucene boolean query uses the word "SHOULD" to mean "at least one of the 'should' terms must
-      // match". Here, we want the search keyword to match either the HTML body, the title (or of course both).
-      Query query = new BooleanQuery.Builder()
-              .add(queryOnId, BooleanClause.Occur.SHOULD)
-              .add(queryOnDisplayName, BooleanClause.Occur.SHOULD)
-              .build();
+      // Sorting by offset reads the offset doc values of each match as it's collected, and keeps the top "page size"
+      // in a priority queue, the same as for relevance. The matches are never all sorted in memory.
+      CollectorManager<?, ? extends TopDocs> topDocsManager = switch (sortOrder) {
+        case RELEVANCE -> TopScoreDocCollector.createSharedManager(n, afterDoc, Integer.MAX_VALUE);
+        case OFFSET -> TopFieldCollector.createSharedManager(OFFSET_SORT, n, (FieldDoc) afterDoc, Integer.MAX_VALUE);
+      };
 
-      TopDocs results = FacetsCollector.search(searcher, query, Integer.MAX_VALUE, facetsCollector);
-      ScoreDoc[] packageNameHits = results.scoreDocs;
-      hits = List.of(packageNameHits);
+      // Collect the top hits and the facet matches in one pass over the index. When the searcher has an executor, each
+      // slice is collected on its own thread.
+      var collectorManager = new MultiCollectorManager(topDocsManager, new SliceFacetsCollectorManager(reader.leaves()));
+      start = System.nanoTime();
+      Object[] collected;
+      try {
+        collected = searcher.search(query, collectorManager);
+      } catch (ExitableDirectoryReader.ExitingReaderException e) {
+        metrics.recordSince(Metrics.Phase.SEARCH, start);
+        metrics.increment(Metrics.SearchEvent.TIMED_OUT);
+        log.warn("The search for '{}' ran out of its time budget of {} while reading the index. Returning an empty partial result.",
+                keyword, budget.orElseThrow());
+        return new SearchResult(List.of(), List.of(), 0, Optional.empty(), true);
+      }
+      metrics.recordSince(Metrics.Phase.SEARCH, start);
+      partial = searcher.timedOut();
+      if (partial) {
+        metrics.increment(Metrics.SearchEvent.TIMED_OUT);
+        log.warn("The search for '{}' ran out of its time budget of {}. Returning partial results.", keyword, budget.orElseThrow());
+      }
+      TopDocs results = (TopDocs) collected[0];
+      @SuppressWarnings("unchecked")
+      List<FacetsCollector> facetsCollectors = (List<FacetsCollector>) collected[1];
 
-      Facets facets = new FastTaxonomyFacetCounts(taxonomyReader, facetsConfig, facetsCollector);
-      facetResults = Stream.of(
-              TimeZoneIndexer.FIELD_OBSERVES_DAYLIGHT_SAVINGS_TIME,
-              TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME,
-              TimeZoneIndexer.FIELD_OFFSET_DESCRIPTION).map(field -> {
-        try {
-          return facets.getTopChildren(Integer.MAX_VALUE, field);
-        } catch (IOException e) {
-          throw new RuntimeException("Failed to get the facet results for field: " + field, e);
-        }
-      }).filter(Objects::nonNull).toList();
+      ScoreDoc[] scoreDocs = results.scoreDocs;
+      totalHits = results.totalHits.value;
+      if (scoreDocs.length > pageSize) {
+        hits = List.of(scoreDocs).subList(0, pageSize);
+        nextCursor = Optional.of(SearchCursor.after(scoreDocs[pageSize - 1]));
+      } else {
+        hits = List.of(scoreDocs);
+        nextCursor = Optional.empty();
+      }
 
-    } catch (QueryNodeException | IOException e) {
+      start = System.nanoTime();
+      facetResults = countFacets(snapshot, facetsCollectors);
+      metrics.recordSince(Metrics.Phase.FACETS, start);
+    } catch (IOException e) {
       throw new IllegalStateException("Unexpected error while searching", e);
     }
 
-    log.info("Found {} hits. Found {} facet results", hits.size(), facetResults.size());
+    log.info("Found {} hits ({} on this page). Found {} facet results. Query cache: {}", totalHits, hits.size(),
+            facetResults.size(), queryCache.stats());
+
+    // The doc values must be read before the searcher is released. They are read from the snapshot's reader and not
+    // from the time-limited one, because the budget may have run out by now.
+    long start = System.nanoTime();
+    List<TimeZoneData> docs;
+    try {
+      docs = HitLoader.load(reader, hits);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected error while reading the hits from the index", e);
+    }
+    metrics.recordSince(Metrics.Phase.DOC_VALUES, start);
+    return new SearchResult(docs, facetResults, totalHits, nextCursor, partial);
+  }
+
+  /**
+   * A searcher over the same reader as the snapshot's shared searcher, but with a time limit. The timeout is a setting
+   * of the searcher, and the shared searcher is used by every concurrent search, so each time-limited search gets its
+   * own. A searcher is a thin wrapper around the reader, so this is cheap. It uses the same query cache.
+   * <p>
+   * The searcher's timeout is only checked while matching and collecting. The expensive part of a leading wildcard is
+   * before that: it visits every term of the field to find the ones that match. So the reader is also wrapped in an
+   * {@link ExitableDirectoryReader} with the same timeout, which checks it while the terms are enumerated and throws
+   * an {@link ExitableDirectoryReader.ExitingReaderException} when it has run out.
+   */
+  private IndexSearcher timeLimitedSearcher(Snapshot snapshot, Duration budget) throws IOException {
+    var timeout = new QueryTimeoutImpl(budget.toMillis());
+    var reader = (DirectoryReader) snapshot.searcher().getIndexReader();
+    IndexSearcher searcher = searchConcurrency.newSearcher(ExitableDirectoryReader.wrap(reader, timeout));
+    searcher.setTimeout(timeout);
+    return searcher;
+  }
+
+  /**
+   * Count the facets of each slice and merge the counts. The slices are counted in parallel when there is an executor.
+   */
+  private List<FacetResult> countFacets(Snapshot snapshot, List<FacetsCollector> facetsCollectors) throws IOException {
+    if (facetsCollectors.size() == 1 || !searchConcurrency.isConcurrent()) {
+      var perSlice = new ArrayList<List<FacetResult>>();
+      for (FacetsCollector facetsCollector : facetsCollectors) {
+        perSlice.add(countFacets(snapshot, facetsCollector));
+      }
+      return FacetResultMerger.merge(perSlice, FACET_DIMS);
+    }
 
-    List<Document> results = hits.stream()
-            .map(hit -> {
+    List<CompletableFuture<List<FacetResult>>> futures = facetsCollectors.stream()
+            .map(facetsCollector -> CompletableFuture.supplyAsync(() -> {
               try {
-                return storedFields.document(hit.doc);
+                return countFacets(snapshot, facetsCollector);
               } catch (IOException e) {
-                throw new IllegalStateException("Unexpected error while getting the document from the index", e);
+                throw new CompletionException(e);
               }
-            })
+            }, searchConcurrency.executor()))
             .toList();
 
     try {
-      indexReader.close();
-      taxonomyReader.close();
+      return FacetResultMerger.merge(futures.stream().map(CompletableFuture::join).toList(), FACET_DIMS);
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw e;
+    }
+  }
+
+  private List<FacetResult> countFacets(Snapshot snapshot, FacetsCollector facetsCollector) throws IOException {
+    Facets facets = switch (facetBackend) {
+      case TAXONOMY -> new FastTaxonomyFacetCounts(snapshot.searcherAndTaxonomy().taxonomyReader, facetsConfig, facetsCollector);
+      case SORTED_SET -> new SortedSetDocValuesFacetCounts(snapshot.sortedSetState(), facetsCollector);
+    };
+    var facetResults = new ArrayList<FacetResult>();
+    for (String dim : FACET_DIMS) {
+      FacetResult facetResult = facets.getTopChildren(Integer.MAX_VALUE, dim);
+      if (facetResult != null) {
+        facetResults.add(facetResult);
+      }
+    }
+    return facetResults;
+  }
+
+  /**
+   * Normalize the keyword so that trivially different spellings of the same search share a cache entry. Only the
+   * surrounding whitespace is insignificant. Case is not, because the query syntax has case-sensitive operators like
+   * "AND".
+   */
+  private static String normalize(String keyword) {
+    return keyword.strip();
+  }
+
+  /**
+   * Parse the keyword into a query that matches either the time zone ID or the display name.
+   */
+  private Query compile(String keyword) {
+    StandardQueryParser queryParser = queryParsers.get();
+    Query queryOnId;
+    Query queryOnDisplayName;
+    try {
+      queryOnId = queryParser.parse(keyword, TimeZoneIndexer.FIELD_ID);
+      queryOnDisplayName = queryParser.parse(keyword, TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME);
+      if (indexSuffixes) {
+        queryOnDisplayName = SuffixField.rewrite(queryOnDisplayName, Set.of(TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME));
+      }
+    } catch (QueryNodeException e) {
+      throw new IllegalStateException("Unexpected error while searching", e);
+    }
+
+    // Note: A Lucene boolean query uses the word "SHOULD" to mean "at least one of the 'should' terms must
+    // match". Here, we want the search keyword to match either the HTML body, the title (or of course both).
+    return new BooleanQuery.Builder()
+            .add(queryOnId, BooleanClause.Occur.SHOULD)
+            .add(queryOnDisplayName, BooleanClause.Occur.SHOULD)
+            .build();
+  }
+
+  Metrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Statistics about the compiled-query cache. Use this to gauge how much parsing and analysis work the cache saves.
+   */
+  LruCache.Stats queryCacheStats() {
+    return queryCache.stats();
+  }
+
+  /**
+   * Statistics about the full-result cache, or empty if the cache is disabled.
+   */
+  Optional<LruCache.Stats> resultCacheStats() {
+    return Optional.ofNullable(resultCache).map(LruCache::stats);
+  }
+
+  /**
+   * Stop committing and refreshing, release the shared readers, commit the changes since the last scheduled commit and
+   * close the writers. In-flight searches keep their readers open until they release them.
+   */
+  @Override
+  public void close() throws IOException {
+    // A scheduled commit may be running. Wait for it, so it doesn't race the final commit or run into closed writers.
+    committer.shutdown();
+    try {
+      if (!committer.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.warn("The scheduled commit did not finish within a minute");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the scheduled commit to finish", e);
+    }
+    if (reopenThread != null) {
+      reopenThread.close();
+    }
+    if (searcherTaxonomyManager != null) {
+      searcherTaxonomyManager.close();
+    }
+    if (searcherManager != null) {
+      searcherManager.close();
+    }
+    // The taxonomy must be committed before the index, because the index refers to the taxonomy's ordinals. The
+    // commits are explicit, so a failure surfaces here instead of being left to the close.
+    if (taxonomyWriter != null) {
+      taxonomyWriter.commit();
+    }
+    if (indexWriter != null) {
+      indexWriter.commit();
+    }
+    if (taxonomyWriter != null) {
+      taxonomyWriter.close();
+    }
+    if (indexWriter != null) {
+      indexWriter.close();
+    }
+  }
+
+  /**
+   * Open the readers that are shared by all searches. The readers are opened from the writers, so they see changes
+   * that have not been committed yet.
+   */
+  private void openSearcherManager() {
+    try {
+      switch (facetBackend) {
+        case TAXONOMY -> searcherTaxonomyManager = new SearcherTaxonomyManager(indexWriter, true, searchConcurrency.searcherFactory(), taxonomyWriter);
+        case SORTED_SET -> searcherManager = new SearcherManager(indexWriter, searchConcurrency.searcherFactory());
+      }
     } catch (IOException e) {
-      throw new RuntimeException("Failed to close the reader", e);
+      throw new IllegalStateException("Unexpected error opening the Lucene index", e);
+    }
+  }
+
+  /**
+   * Start the background threads that reopen the readers and commit the index.
+   */
+  private void startRefreshing() {
+    double maxStale = refreshSettings.maxStaleSeconds();
+    double minStale = refreshSettings.minStaleSeconds();
+    reopenThread = switch (facetBackend) {
+      case TAXONOMY -> new ControlledRealTimeReopenThread<>(indexWriter, searcherTaxonomyManager, maxStale, minStale);
+      case SORTED_SET -> new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, maxStale, minStale);
+    };
+    reopenThread.setName("index-reopener");
+    reopenThread.setDaemon(true);
+    reopenThread.start();
+
+    long commitIntervalMillis = refreshSettings.commitInterval().toMillis();
+    committer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    log.info("Refreshing searches every {} at most (every {} at least when waited on). Committing every {}.",
+            refreshSettings.maxStale(), refreshSettings.minStale(), refreshSettings.commitInterval());
+  }
+
+  /**
+   * Make the changes since the last commit durable. A failed commit is logged and retried on the next schedule. The
+   * changes are still visible to searches in the meantime.
+   */
+  private void commit() {
+    try {
+      if (!indexWriter.hasUncommittedChanges()) {
+        return;
+      }
+      // The taxonomy must be committed first. Otherwise, a crash between the two commits could leave the index with
+      // references to taxonomy ordinals that were never committed.
+      if (taxonomyWriter != null) {
+        taxonomyWriter.commit();
+      }
+      long start = System.nanoTime();
+      indexWriter.commit();
+      log.info("Committed the index in {} ms", (System.nanoTime() - start) / 1_000_000);
+    } catch (IOException | RuntimeException e) {
+      log.error("Failed to commit the index. Will retry on the next schedule.", e);
     }
-    return new SearchResult(results, facetResults);
   }
 
   /**
-   * Index the domain data into an in-memory Lucene index.
+   * Index the domain data, or reuse an index that was built from the same data by an earlier run. The writers are left
+   * open for later changes.
+   * <p>
+   * Every commit carries a fingerprint of the source data (the JDK's time zones) in its user data. If the directory
+   * already holds a committed index with the same fingerprint, the index is opened as-is and indexing is skipped. This
+   * only pays off for an on-disk directory, like a memory-mapped one, which outlives the process. An in-memory
+   * directory always starts empty. Documents changed through the write API are part of the reused index, because they
+   * were committed along with the fingerprint.
    */
   private void indexData() {
-    // The "CREATE" open mode removes any pre-existing index files.
-    IndexWriterConfig.OpenMode openMode = IndexWriterConfig.OpenMode.CREATE;
+    long start = System.nanoTime();
+    List<TimeZone> timeZones = findTimeZones();
+    String fingerprint = fingerprint(timeZones);
+    boolean reuse = hasIndexWithFingerprint(fingerprint);
+
+    // The "CREATE" open mode removes any pre-existing index files. The "APPEND" open mode opens the existing index.
+    IndexWriterConfig.OpenMode openMode = reuse ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE;
 
-    IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    // The suffix companion field gets its own analysis chain. The query parser keeps the plain analyzer, because the
+    // companion field is only ever searched through a rewritten wildcard.
+    IndexWriterConfig config = new IndexWriterConfig(indexSuffixes
+            ? SuffixField.wrap(analyzer, Set.of(TimeZoneIndexer.FIELD_TIME_ZONE_DISPLAY_NAME))
+            : analyzer);
     config.setOpenMode(openMode);
 
-      try (var indexWriter = new IndexWriter(indexDir, config);
-           var taxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDir, openMode)) {
+    try {
+      indexWriter = new IndexWriter(indexDir, config);
 
-        List<TimeZone> timeZones = findTimeZones();
-        log.info("Indexing {} known time zones.", timeZones.size());
+      // Every later commit, including the scheduled ones, carries the fingerprint along.
+      indexWriter.setLiveCommitData(Map.of(FINGERPRINT_KEY, fingerprint).entrySet());
 
-        var indexer = new TimeZoneIndexer(indexWriter, taxonomyWriter);
-        for (var timeZone : timeZones) {
-          indexer.index(timeZone);
-        }
+      // The sorted set facet backend doesn't need a taxonomy.
+      if (facetBackend == FacetBackend.TAXONOMY) {
+        taxonomyWriter = new DirectoryTaxonomyWriter(taxonomyDir, openMode);
+      }
+      indexer = new TimeZoneIndexer(indexWriter, taxonomyWriter, facetBackend, indexSuffixes);
+
+      if (reuse) {
+        log.info("Startup mode: reused the existing index of {} documents (fingerprint {}) in {} ms. Indexing skipped.",
+                indexWriter.getDocStats().numDocs, fingerprint, (System.nanoTime() - start) / 1_000_000);
+        return;
+      }
 
-        log.info("Indexing done.");
+      log.info("Indexing {} known time zones. Facet backend: {}. Suffix field: {}", timeZones.size(), facetBackend, indexSuffixes);
+      for (var timeZone : timeZones) {
+        indexer.index(timeZone);
+      }
+
+      if (taxonomyWriter != null) {
+        taxonomyWriter.commit();
+      }
+      indexWriter.commit();
+      log.info("Startup mode: built a new index of {} documents (fingerprint {}) in {} ms.", timeZones.size(),
+              fingerprint, (System.nanoTime() - start) / 1_000_000);
     } catch (Exception e) {
       log.error("Unexpected error while indexing.", e);
       System.exit(1);
     }
   }
 
-  private static List<TimeZone> findTimeZones() {
+  /**
+   * Does the index directory hold a committed index that was built from the source data with this fingerprint? For the
+   * taxonomy facet backend, the taxonomy must also exist. The taxonomy is always committed before the index, so a
+   * committed index implies a committed taxonomy to go with it.
+   */
+  private boolean hasIndexWithFingerprint(String fingerprint) {
+    try {
+      if (!DirectoryReader.indexExists(indexDir)) {
+        return false;
+      }
+      if (facetBackend == FacetBackend.TAXONOMY && !DirectoryReader.indexExists(taxonomyDir)) {
+        return false;
+      }
+      String committed = SegmentInfos.readLatestCommit(indexDir).getUserData().get(FINGERPRINT_KEY);
+      if (!fingerprint.equals(committed)) {
+        log.info("The existing index was built from different source data (fingerprint {}). It will be rebuilt.", committed);
+        return false;
+      }
+      return true;
+    } catch (IOException e) {
+      log.warn("Could not read the existing index. It will be rebuilt.", e);
+      return false;
+    }
+  }
+
+  /**
+   * A SHA-256 fingerprint of everything that goes into the initial index: the time zone data, the facet backend, the
+   * suffix companion field and the schema version. The time zone data changes when the JDK's time zone database is updated.
+   */
+  private String fingerprint(List<TimeZone> timeZones) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available in the JDK", e);
+    }
+
+    digest.update("schema=%d backend=%s suffixes=%s%n".formatted(SCHEMA_VERSION, facetBackend, indexSuffixes).getBytes(StandardCharsets.UTF_8));
+    for (TimeZone timeZone : timeZones) {
+      TimeZoneData data = TimeZoneData.of(timeZone);
+      String line = "%s|%s|%s|%s%n".formatted(data.id(), data.displayName(), data.offsetDescription(), data.observesDaylightTime());
+      digest.update(line.getBytes(StandardCharsets.UTF_8));
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  static List<TimeZone> findTimeZones() {
     String[] timeZoneIds = TimeZone.getAvailableIDs();
     return Arrays.stream(timeZoneIds)
             .map(TimeZone::getTimeZone)
@@ -0,0 +1,127 @@
+package dgroomes;
+
+import org.apache.hc.core5.http.ExceptionListener;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.hc.core5.http.impl.HttpProcessors;
+import org.apache.hc.core5.http.impl.io.DefaultBHttpServerConnection;
+import org.apache.hc.core5.http.impl.io.DefaultBHttpServerConnectionFactory;
+import org.apache.hc.core5.http.impl.io.DefaultClassicHttpResponseFactory;
+import org.apache.hc.core5.http.impl.io.HttpService;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.HttpRequestMapper;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http.protocol.UriPatternMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+
+/**
+ * An HTTP server that serves each connection on its own virtual thread.
+ * <p>
+ * This reuses the blocking HttpCore5 building blocks (the connection and the {@link HttpService} protocol handler) but
+ * replaces the server's worker pool of platform threads. A virtual thread that is blocked reading an idle keep-alive
+ * connection costs a few hundred bytes of heap instead of a platform thread's stack, so the number of open connections
+ * is no longer tied to the number of threads.
+ * <p>
+ * The connections get the same backlog and idle timeout as in the classic server (see {@link ConnectionSettings}).
+ * Without the timeout, a client that goes quiet would keep its virtual thread and its file descriptor forever.
+ */
+class VirtualThreadHttpServer implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(VirtualThreadHttpServer.class);
+
+  private final int port;
+  private final ConnectionSettings connectionSettings;
+  private final HttpService httpService;
+  private final ExceptionListener exceptionListener;
+  private ServerSocket serverSocket;
+  private Thread acceptor;
+
+  /**
+   * @param routes the request handlers keyed by URI pattern, with the same pattern syntax as
+   *               {@link org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap#register(String, HttpRequestHandler)}
+   */
+  VirtualThreadHttpServer(int port, Map<String, HttpRequestHandler> routes, ConnectionSettings connectionSettings,
+                          ExceptionListener exceptionListener) {
+    this.port = port;
+    this.connectionSettings = connectionSettings;
+    this.exceptionListener = exceptionListener;
+
+    var matcher = new UriPatternMatcher<HttpRequestHandler>();
+    routes.forEach(matcher::register);
+    HttpRequestMapper<HttpRequestHandler> handlerMapper = (request, context) -> matcher.lookup(pathOf(request));
+    this.httpService = new HttpService(HttpProcessors.server(), handlerMapper, DefaultConnectionReuseStrategy.INSTANCE,
+            DefaultClassicHttpResponseFactory.INSTANCE);
+  }
+
+  void start() throws IOException {
+    serverSocket = new ServerSocket(port, connectionSettings.backlog());
+    acceptor = Thread.ofPlatform().name("http-acceptor").start(this::acceptContinuously);
+  }
+
+  void awaitTermination() throws InterruptedException {
+    acceptor.join();
+  }
+
+  @Override
+  public void close() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      log.warn("Failed to close the server socket", e);
+    }
+  }
+
+  private void acceptContinuously() {
+    var connectionThreads = Thread.ofVirtual().name("http-connection-", 0);
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        // The server socket was closed. This is the normal way to stop the server.
+        break;
+      } catch (IOException e) {
+        exceptionListener.onError(e);
+        continue;
+      }
+      connectionThreads.start(() -> serve(socket));
+    }
+  }
+
+  /**
+   * Serve requests on the connection until the client closes it, the connection is not kept alive or it's idle for
+   * longer than the timeout.
+   */
+  private void serve(Socket socket) {
+    try (DefaultBHttpServerConnection connection = DefaultBHttpServerConnectionFactory.INSTANCE.createConnection(socket)) {
+      socket.setSoTimeout(connectionSettings.idleTimeoutMillis());
+      while (connection.isOpen()) {
+        httpService.handleRequest(connection, HttpCoreContext.create());
+      }
+    } catch (SocketTimeoutException e) {
+      // The client was idle for longer than the timeout. Closing its connection is the point of the timeout. The
+      // listener counts it like the classic server does, without logging it as an error.
+      exceptionListener.onError(e);
+    } catch (Exception e) {
+      exceptionListener.onError(e);
+    }
+  }
+
+  /**
+   * The request path without the query string.
+   */
+  private static String pathOf(HttpRequest request) {
+    String path = request.getPath();
+    int queryStart = path.indexOf('?');
+    return queryStart == -1 ? path : path.substring(0, queryStart);
+  }
+}
@@ -19,6 +19,8 @@ dependencies {
     implementation(libs.classgraph)
     implementation(libs.lucene.queryparser)
     implementation(libs.lucene.analysis)
+    implementation(libs.lucene.suggest)
+    implementation(libs.lucene.join)
 }
 
 application {
@@ -0,0 +1,319 @@
+package dgroomes;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.fst.WFSTCompletionLookup;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Suggest class names as the user types ("type-ahead" or "autocomplete").
+ * <p>
+ * A search with the query parser is too heavy for this: it parses and analyzes the keyword, scores every match and
+ * loads stored fields. A suggester instead looks up the typed prefix in a weighted finite state transducer (FST) that
+ * is built once, up front. The FST is an in-memory automaton that shares the common prefixes and suffixes of its keys,
+ * and a lookup walks it to the end of the prefix and then collects the top-weighted completions. The cost of a lookup
+ * depends on the length of the prefix and the number of suggestions, not on the number of classes.
+ * <p>
+ * Every class gets two keys:
+ * <p>
+ * - The lower-cased simple name, for plain prefix matching. "pars" matches "Parser".
+ * - The lower-cased initials of its "humps", for camel-case matching. "CGr" looks up the initials "cg" and then keeps
+ *   the classes whose humps start with "C" and "Gr", like "ClassGraph".
+ * <p>
+ * Each key is followed by a space and the binary name of the class (like "java.util.Map$Entry"), so that every key is
+ * unique and the class can be read back from the key. The simple name alone is not enough: the nested classes
+ * "Foo$Builder" and "Bar$Builder" in the same package have the same simple name, "Builder". The weight of a class is the popularity of its package: the number of classes in it. So
+ * classes from the big, central packages come first.
+ * <p>
+ * The suggester is built from the index written by {@link JavaClassIndexer}.
+ */
+public class ClassNameSuggester {
+
+  private static final String NAME_KEY = "n:";
+  private static final String HUMPS_KEY = "h:";
+
+  /**
+   * How many more candidates to fetch than requested when the camel-case filter may throw some away. If the filter
+   * throws away too many, the lookup is repeated with a bigger factor.
+   */
+  private static final int HUMP_OVERFETCH = 8;
+
+  /**
+   * @param binaryName the name of the class as the JVM knows it, like "java.util.Map$Entry"
+   */
+  public record Suggestion(String binaryName, long weight) {
+
+    public String simpleName() {
+      return ClassNameSuggester.simpleName(binaryName);
+    }
+
+    public String packageName() {
+      int lastDot = binaryName.lastIndexOf('.');
+      return lastDot == -1 ? "" : binaryName.substring(0, lastDot);
+    }
+  }
+
+  private final WFSTCompletionLookup lookup;
+
+  private ClassNameSuggester(WFSTCompletionLookup lookup) {
+    this.lookup = lookup;
+  }
+
+  /**
+   * Build the suggester from the classes in the index.
+   */
+  public static ClassNameSuggester build(IndexReader reader) throws IOException {
+    record IndexedClass(String binaryName, String simpleName, String packageName) {}
+
+    var classes = new ArrayList<IndexedClass>();
+    var packageSizes = new HashMap<String, Long>();
+
+    // With the methods indexed, most documents are method documents (see JavaClassIndexer). Only the class documents
+    // are visited, by iterating the matches of the "doc_type:class" term, so the stored fields of the methods are never
+    // loaded.
+    var searcher = new IndexSearcher(reader);
+    Query classDocs = new TermQuery(new Term(JavaClassIndexer.FIELD_DOC_TYPE, JavaClassIndexer.DOC_TYPE_CLASS));
+    Weight weight = searcher.createWeight(searcher.rewrite(classDocs), ScoreMode.COMPLETE_NO_SCORES, 1);
+    for (LeafReaderContext leaf : reader.leaves()) {
+      Scorer scorer = weight.scorer(leaf);
+      if (scorer == null) {
+        continue;
+      }
+      StoredFields storedFields = leaf.reader().storedFields();
+      Bits liveDocs = leaf.reader().getLiveDocs();
+      DocIdSetIterator docs = scorer.iterator();
+      for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+        if (liveDocs != null && !liveDocs.get(doc)) {
+          continue;
+        }
+        Document document = storedFields.document(doc, Set.of(JavaClassIndexer.FIELD_BINARY_NAME, JavaClassIndexer.FIELD_PACKAGE_NAME));
+        String binaryName = document.get(JavaClassIndexer.FIELD_BINARY_NAME);
+        if (binaryName == null) {
+          continue;
+        }
+        // Anonymous classes have no simple name, and nobody types their names.
+        var indexedClass = new IndexedClass(binaryName, simpleName(binaryName), document.get(JavaClassIndexer.FIELD_PACKAGE_NAME));
+        if (indexedClass.simpleName().isEmpty()) {
+          continue;
+        }
+        classes.add(indexedClass);
+        packageSizes.merge(indexedClass.packageName(), 1L, Long::sum);
+      }
+    }
+
+    // The same class can be on the classpath more than once. Keep one key per class, otherwise the suggestions repeat.
+    var entries = new LinkedHashMap<String, Long>();
+    for (IndexedClass indexedClass : classes) {
+      long weight = packageSizes.get(indexedClass.packageName());
+      entries.put(NAME_KEY + indexedClass.simpleName().toLowerCase(Locale.ROOT) + " " + indexedClass.binaryName(), weight);
+      entries.put(HUMPS_KEY + initials(humps(indexedClass.simpleName())) + " " + indexedClass.binaryName(), weight);
+    }
+
+    // The FST is built from sorted keys. The sorting happens on the side, in a temporary directory.
+    var lookup = new WFSTCompletionLookup(new ByteBuffersDirectory(), "class-name-suggester");
+    lookup.build(new EntriesIterator(entries.entrySet().iterator()));
+    return new ClassNameSuggester(lookup);
+  }
+
+  /**
+   * Suggest up to {@code n} classes for what the user typed so far, the most popular first.
+   */
+  public List<Suggestion> suggest(String typed, int n) throws IOException {
+    if (typed.isEmpty() || n < 1) {
+      return List.of();
+    }
+
+    List<String> typedHumps = typedHumps(typed);
+    if (typedHumps.size() < 2) {
+      return toSuggestions(lookup.lookup(NAME_KEY + typed.toLowerCase(Locale.ROOT), false, n), n, null);
+    }
+
+    // Camel-case matching. The FST narrows the candidates down to the classes with the same initials. The candidates
+    // whose humps don't start with the typed humps are filtered out.
+    String prefix = HUMPS_KEY + initials(typedHumps);
+    int fetch = n * HUMP_OVERFETCH;
+    while (true) {
+      List<Lookup.LookupResult> results = lookup.lookup(prefix, false, fetch);
+      List<Suggestion> suggestions = toSuggestions(results, n, typedHumps);
+      if (suggestions.size() == n || results.size() < fetch) {
+        return suggestions;
+      }
+      fetch *= HUMP_OVERFETCH;
+    }
+  }
+
+  /**
+   * @param typedHumps if not null, only keep the classes whose humps start with these humps
+   */
+  private static List<Suggestion> toSuggestions(List<Lookup.LookupResult> results, int n, List<String> typedHumps) {
+    var suggestions = new ArrayList<Suggestion>(Math.min(n, results.size()));
+    for (Lookup.LookupResult result : results) {
+      String key = result.key.toString();
+      var suggestion = new Suggestion(key.substring(key.indexOf(' ') + 1), result.value);
+      if (typedHumps != null && !humpsMatch(typedHumps, humps(suggestion.simpleName()))) {
+        continue;
+      }
+      suggestions.add(suggestion);
+      if (suggestions.size() == n) {
+        break;
+      }
+    }
+    return suggestions;
+  }
+
+  /**
+   * The simple name of a class from its binary name, the same as {@link Class#getSimpleName()}: "Entry" for
+   * "java.util.Map$Entry". The binary name of a local class has digits before its simple name ("Outer$1Local"), and an
+   * anonymous class only has digits ("Outer$1"), so its simple name is empty.
+   */
+  static String simpleName(String binaryName) {
+    int start = Math.max(binaryName.lastIndexOf('.'), binaryName.lastIndexOf('$')) + 1;
+    while (start < binaryName.length() && Character.isDigit(binaryName.charAt(start))) {
+      start++;
+    }
+    return binaryName.substring(start);
+  }
+
+  private static boolean humpsMatch(List<String> typedHumps, List<String> classHumps) {
+    if (typedHumps.size() > classHumps.size()) {
+      return false;
+    }
+    for (int i = 0; i < typedHumps.size(); i++) {
+      if (!classHumps.get(i).regionMatches(true, 0, typedHumps.get(i), 0, typedHumps.get(i).length())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Split a camel-case name into its humps. A hump starts at an upper-case letter that follows a lower-case letter or
+   * a digit, and at the last upper-case letter of an acronym that is followed by a lower-case letter. Underscores and
+   * dollar signs separate humps too. For example, "ClassGraph" is "Class" and "Graph", and "HTTPServer" is "HTTP" and
+   * "Server".
+   */
+  static List<String> humps(String name) {
+    var humps = new ArrayList<String>();
+    int start = 0;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '_' || c == '$') {
+        if (i > start) {
+          humps.add(name.substring(start, i));
+        }
+        start = i + 1;
+        continue;
+      }
+      if (i > start && Character.isUpperCase(c)) {
+        char previous = name.charAt(i - 1);
+        boolean afterLower = Character.isLowerCase(previous) || Character.isDigit(previous);
+        boolean endOfAcronym = Character.isUpperCase(previous) && i + 1 < name.length() && Character.isLowerCase(name.charAt(i + 1));
+        if (afterLower || endOfAcronym) {
+          humps.add(name.substring(start, i));
+          start = i;
+        }
+      }
+    }
+    if (start < name.length()) {
+      humps.add(name.substring(start));
+    }
+    return humps;
+  }
+
+  /**
+   * Split what the user typed into humps. Here every upper-case letter starts a hump, so "StQP" is "St", "Q" and "P"
+   * and matches "StandardQueryParser".
+   */
+  static List<String> typedHumps(String typed) {
+    var humps = new ArrayList<String>();
+    int start = 0;
+    for (int i = 1; i < typed.length(); i++) {
+      if (Character.isUpperCase(typed.charAt(i))) {
+        humps.add(typed.substring(start, i));
+        start = i;
+      }
+    }
+    humps.add(typed.substring(start));
+    return humps;
+  }
+
+  private static String initials(List<String> humps) {
+    var initials = new StringBuilder(humps.size());
+    for (String hump : humps) {
+      initials.append(Character.toLowerCase(hump.charAt(0)));
+    }
+    return initials.toString();
+  }
+
+  /**
+   * Feeds the keys and their weights to the FST builder.
+   */
+  private static class EntriesIterator implements InputIterator {
+
+    private final Iterator<Map.Entry<String, Long>> entries;
+    private long weight;
+
+    EntriesIterator(Iterator<Map.Entry<String, Long>> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public BytesRef next() {
+      if (!entries.hasNext()) {
+        return null;
+      }
+      Map.Entry<String, Long> entry = entries.next();
+      weight = entry.getValue();
+      return new BytesRef(entry.getKey());
+    }
+
+    @Override
+    public long weight() {
+      return weight;
+    }
+
+    @Override
+    public BytesRef payload() {
+      return null;
+    }
+
+    @Override
+    public boolean hasPayloads() {
+      return false;
+    }
+
+    @Override
+    public Set<BytesRef> contexts() {
+      return null;
+    }
+
+    @Override
+    public boolean hasContexts() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package dgroomes;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A minimal parser for command-line options of the form "--name=value". For example:
+ * <pre>
+ *   ./gradlew run --args='--scan-threads=8 --index-threads=8'
+ * </pre>
+ * I don't want to pull in a command-line parsing library for a handful of options.
+ */
+class CommandLineOptions {
+
+  private final Map<String, String> values;
+
+  private CommandLineOptions(Map<String, String> values) {
+    this.values = values;
+  }
+
+  static CommandLineOptions parse(String[] args) {
+    var values = new HashMap<String, String>();
+    for (String arg : args) {
+      if (!arg.startsWith("--") || !arg.contains("=")) {
+        throw new IllegalArgumentException("Expected an option of the form '--name=value' but found '%s'".formatted(arg));
+      }
+      int separator = arg.indexOf('=');
+      values.put(arg.substring(2, separator), arg.substring(separator + 1));
+    }
+    return new CommandLineOptions(values);
+  }
+
+  String string(String name, String defaultValue) {
+    return values.getOrDefault(name, defaultValue);
+  }
+
+  int integer(String name, int defaultValue) {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("The '--%s' option must be a number but was '%s'".formatted(name, value));
+    }
+  }
+
+  boolean bool(String name, boolean defaultValue) {
+    String value = values.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    return switch (value) {
+      case "true" -> true;
+      case "false" -> false;
+      default -> throw new IllegalArgumentException("The '--%s' option must be 'true' or 'false' but was '%s'".formatted(name, value));
+    };
+  }
+}
@@ -0,0 +1,54 @@
+package dgroomes;
+
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Where the "in-memory" index lives.
+ * <p>
+ * All the options keep the index in RAM, but only one of them keeps it on the Java heap. A big index on the heap fills
+ * up the old generation, and the garbage collector has to trace and maybe copy it again and again even though it never
+ * changes. The off-heap options keep the bytes out of the garbage collector's way.
+ */
+public enum IndexStorage {
+
+  /**
+   * A {@link ByteBuffersDirectory} with heap buffers. This is the default.
+   */
+  HEAP,
+
+  /**
+   * A {@link ByteBuffersDirectory} with direct (off-heap) buffers. The buffers are still owned by Java objects, and
+   * their memory is released when the garbage collector collects those objects. The JVM caps direct memory with the
+   * "-XX:MaxDirectMemorySize" option, which defaults to the max heap size.
+   */
+  DIRECT,
+
+  /**
+   * An {@link MMapDirectory} on a path. On a RAM-backed file system like tmpfs ("/dev/shm" on Linux), the files are in
+   * memory, and the memory belongs to the operating system's page cache rather than to the JVM. The files stay in memory
+   * until they are deleted, so the caller deletes them after the directory is closed.
+   */
+  MMAP;
+
+  /**
+   * @param path the directory for the index files. Only used by {@link #MMAP}.
+   */
+  Directory open(Path path) throws IOException {
+    return switch (this) {
+      case HEAP -> new ByteBuffersDirectory();
+      case DIRECT -> new ByteBuffersDirectory(new SingleInstanceLockFactory(),
+              () -> new ByteBuffersDataOutput(ByteBuffersDataOutput.DEFAULT_MIN_BITS_PER_BLOCK,
+                      ByteBuffersDataOutput.DEFAULT_MAX_BITS_PER_BLOCK, ByteBuffer::allocateDirect, ByteBuffersDataOutput.NO_REUSE),
+              ByteBuffersDirectory.OUTPUT_AS_MANY_BUFFERS);
+      case MMAP -> new MMapDirectory(path);
+    };
+  }
+}
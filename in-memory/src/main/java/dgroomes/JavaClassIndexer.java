@@ -2,28 +2,82 @@ package dgroomes;
 
 import io.github.classgraph.ClassInfo;
 import io.github.classgraph.MethodInfo;
+import io.github.classgraph.MethodParameterInfo;
 import io.github.classgraph.ModuleInfo;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.IndexWriter;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Index Java classes (e.g. name, package and module) into a Lucene index.
+ * <p>
+ * Optionally, the methods of each class are indexed too, as a "block" of documents: one child document per method,
+ * followed by the parent document of the class. Lucene keeps a block together in the same segment and in the same
+ * order, which is what makes block join queries possible (see {@link org.apache.lucene.search.join.ToParentBlockJoinQuery}).
+ * The "doc_type" field tells the parents and the children apart.
  */
 public class JavaClassIndexer {
 
   public static final String FIELD_CLASS_NAME = "class_name";
+  /**
+   * The name of the class as the JVM knows it, like "java.util.Map$Entry". Unlike the simple name, it's unique and it
+   * keeps the enclosing class of a nested class. It's only stored, not indexed.
+   */
+  public static final String FIELD_BINARY_NAME = "binary_name";
   public static final String FIELD_PACKAGE_NAME = "package_name";
   public static final String FIELD_MODULE_NAME = "module_name";
+  public static final String FIELD_DOC_TYPE = "doc_type";
+  public static final String FIELD_METHOD_NAME = "method_name";
+  public static final String FIELD_PARAMETER_TYPES = "parameter_types";
+  public static final String FIELD_RETURN_TYPE = "return_type";
+  public static final String FIELD_MODIFIERS = "modifiers";
+
+  public static final String DOC_TYPE_CLASS = "class";
+  public static final String DOC_TYPE_METHOD = "method";
 
   private final IndexWriter indexWriter;
+  private final boolean indexMethods;
 
   public JavaClassIndexer(IndexWriter indexWriter) {
+    this(indexWriter, false);
+  }
+
+  /**
+   * @param indexMethods index the methods of each class as child documents. The classes must have been scanned with
+   *                     method info enabled.
+   */
+  public JavaClassIndexer(IndexWriter indexWriter, boolean indexMethods) {
     this.indexWriter = indexWriter;
+    this.indexMethods = indexMethods;
   }
 
   public void indexClass(ClassInfo classInfo) throws IOException {
+    indexClasses(List.of(classInfo));
+  }
+
+  /**
+   * Index a batch of classes with one call to the index writer. This is safe to call from many threads at once.
+   * <p>
+   * The blocks of the classes are simply concatenated. That's fine for block joins, because a parent document marks the
+   * end of its block.
+   */
+  public void indexClasses(List<ClassInfo> classInfos) throws IOException {
+    var docs = new ArrayList<Document>(classInfos.size());
+    for (ClassInfo classInfo : classInfos) {
+      if (indexMethods) {
+        for (MethodInfo methodInfo : classInfo.getDeclaredMethodInfo()) {
+          docs.add(toMethodDocument(methodInfo));
+        }
+      }
+      docs.add(toDocument(classInfo));
+    }
+    indexWriter.addDocuments(docs);
+  }
+
+  private static Document toDocument(ClassInfo classInfo) {
     String className = classInfo.getSimpleName();
     String packageName = classInfo.getPackageName();
     String moduleName;
@@ -39,10 +93,32 @@ public class JavaClassIndexer {
 
     var doc = new Document();
 
+    doc.add(new StringField(FIELD_DOC_TYPE, DOC_TYPE_CLASS, Field.Store.NO));
     doc.add(new TextField(FIELD_CLASS_NAME, className, Field.Store.YES));
+    doc.add(new StoredField(FIELD_BINARY_NAME, classInfo.getName()));
     doc.add(new TextField(FIELD_PACKAGE_NAME, packageName, Field.Store.YES));
     doc.add(new TextField(FIELD_MODULE_NAME, moduleName, Field.Store.YES));
+    return doc;
+  }
 
-    indexWriter.addDocument(doc);
+  /**
+   * A method is described by its name, the types of its parameters, its return type and its modifiers. The types are
+   * the erased types, like "java.util.List" instead of "java.util.List<java.lang.String>". These are all exact-match
+   * fields: you look for a method named "parse", not for methods with a name similar to "parse".
+   */
+  private static Document toMethodDocument(MethodInfo methodInfo) {
+    var doc = new Document();
+    doc.add(new StringField(FIELD_DOC_TYPE, DOC_TYPE_METHOD, Field.Store.NO));
+    doc.add(new StringField(FIELD_METHOD_NAME, methodInfo.getName(), Field.Store.YES));
+    for (MethodParameterInfo parameterInfo : methodInfo.getParameterInfo()) {
+      doc.add(new StringField(FIELD_PARAMETER_TYPES, parameterInfo.getTypeDescriptor().toString(), Field.Store.YES));
+    }
+    doc.add(new StringField(FIELD_RETURN_TYPE, methodInfo.getTypeDescriptor().getResultType().toString(), Field.Store.YES));
+    for (String modifier : methodInfo.getModifiersStr().split(" ")) {
+      if (!modifier.isEmpty()) {
+        doc.add(new StringField(FIELD_MODIFIERS, modifier, Field.Store.YES));
+      }
+    }
+    return doc;
   }
 }
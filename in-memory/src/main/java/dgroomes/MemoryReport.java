@@ -0,0 +1,51 @@
+package dgroomes;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * A snapshot of the JVM's memory use and garbage collection totals, to compare before and after indexing.
+ * <p>
+ * The heap number is taken right after a full garbage collection (as far as {@link System#gc()} can promise one), so
+ * it's the live data and not whatever garbage happens to be lying around.
+ *
+ * @param heapUsedBytes   the used heap after a garbage collection
+ * @param directUsedBytes the memory used by direct byte buffers
+ * @param gcCount         the total number of garbage collections so far, across all collectors
+ * @param gcMillis        the total time spent in garbage collection so far. For most collectors, this is roughly the
+ *                        total pause time.
+ */
+record MemoryReport(long heapUsedBytes, long directUsedBytes, long gcCount, long gcMillis) {
+
+  static MemoryReport take() {
+    System.gc();
+    long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+    long directUsed = 0;
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        directUsed = pool.getMemoryUsed();
+      }
+    }
+
+    long gcCount = 0;
+    long gcMillis = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount += Math.max(0, gc.getCollectionCount());
+      gcMillis += Math.max(0, gc.getCollectionTime());
+    }
+    return new MemoryReport(heapUsed, directUsed, gcCount, gcMillis);
+  }
+
+  /**
+   * Describe the change from an earlier snapshot. The explicit collections of the snapshots themselves are counted
+   * too, so the GC numbers are a little high.
+   */
+  String since(MemoryReport before) {
+    return "heap used %d MiB -> %d MiB, direct memory %d MiB -> %d MiB, %d GCs taking %d ms".formatted(
+            before.heapUsedBytes / (1024 * 1024), heapUsedBytes / (1024 * 1024),
+            before.directUsedBytes / (1024 * 1024), directUsedBytes / (1024 * 1024),
+            gcCount - before.gcCount, gcMillis - before.gcMillis);
+  }
+}
@@ -2,6 +2,7 @@ package dgroomes;
 
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfo;
+import io.github.classgraph.ClassInfoList;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
@@ -9,37 +10,157 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.join.BitSetProducer;
+import org.apache.lucene.search.join.QueryBitSetProducer;
+import org.apache.lucene.search.join.ScoreMode;
+import org.apache.lucene.search.join.ToChildBlockJoinQuery;
+import org.apache.lucene.search.join.ToParentBlockJoinQuery;
 import org.apache.lucene.store.ByteBuffersDirectory;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * This is a simple demo of Apache Lucene that showcases an in-memory use case using {@link ByteBuffersDirectory}.
+ * This is a simple demo of Apache Lucene that showcases an in-memory use case using {@link ByteBuffersDirectory}. The
+ * index can also be kept off the Java heap. See {@link IndexStorage}.
  */
 public class Runner {
   private static final Logger log = LoggerFactory.getLogger(Runner.class);
 
+  private static final int INDEX_BATCH_SIZE = 1_000;
+
   public static void main(String[] args) {
+    var options = CommandLineOptions.parse(args);
+    int cores = Runtime.getRuntime().availableProcessors();
+    int scanThreads = options.integer("scan-threads", cores);
+    int indexThreads = options.integer("index-threads", cores);
+    boolean indexMethods = options.bool("index-methods", false);
+    IndexStorage storage = storage(options);
+    Path indexPath = storage == IndexStorage.MMAP ? createIndexDir(Path.of(options.string("index-path", "/dev/shm"))) : null;
 
-    try (Directory indexDir = new ByteBuffersDirectory();
+    try (Directory indexDir = storage.open(indexPath);
          Analyzer analyzer = new StandardAnalyzer()) {
 
-      index(indexDir, analyzer);
+      log.info("Index storage: {}{}", storage, storage == IndexStorage.MMAP ? " at " + indexPath : "");
+      MemoryReport before = MemoryReport.take();
+      index(indexDir, analyzer, scanThreads, indexThreads, indexMethods);
+      MemoryReport after = MemoryReport.take();
+      log.info("Index size: {} MiB. Indexing: {}", sizeInBytes(indexDir) / (1024 * 1024), after.since(before));
+
       search(indexDir);
+      if (indexMethods) {
+        searchMethods(indexDir);
+      }
+      measureSearchLatency(indexDir, analyzer);
+      suggest(indexDir);
     } catch (IOException e) {
       log.error("Unexpected error", e);
       throw new RuntimeException(e);
+    } finally {
+      if (indexPath != null) {
+        deleteIndexDir(indexPath);
+      }
+    }
+  }
+
+  /**
+   * Create a fresh directory for the "mmap" storage under the given parent. On a tmpfs like "/dev/shm", the files take
+   * up RAM until they are deleted, even after the JVM has exited. So the directory is deleted at the end of the run (see
+   * {@link #deleteIndexDir}) and a leftover index from an earlier run is never mixed into the measurements.
+   */
+  private static Path createIndexDir(Path parent) {
+    if (!Files.isDirectory(parent)) {
+      throw new IllegalArgumentException(("The directory '%s' for the mmap storage does not exist. The default, /dev/shm, " +
+              "is Linux-only. Use --index-path to pick a RAM-backed directory.").formatted(parent));
+    }
+    try {
+      return Files.createTempDirectory(parent, "lucene-playground-in-memory-");
+    } catch (IOException e) {
+      throw new IllegalStateException("Unexpected error while creating the index directory in " + parent, e);
+    }
+  }
+
+  /**
+   * This must run after the directory is closed.
+   */
+  private static void deleteIndexDir(Path indexPath) {
+    try {
+      IOUtils.rm(indexPath);
+    } catch (IOException e) {
+      log.warn("Failed to delete the index directory {}. Delete it by hand to free its memory.", indexPath, e);
+    }
+  }
+
+  private static IndexStorage storage(CommandLineOptions options) {
+    String storage = options.string("storage", "heap");
+    return switch (storage) {
+      case "heap" -> IndexStorage.HEAP;
+      case "direct" -> IndexStorage.DIRECT;
+      case "mmap" -> IndexStorage.MMAP;
+      default -> throw new IllegalArgumentException("Unknown storage '%s'. Expected one of: heap, direct, mmap".formatted(storage));
+    };
+  }
+
+  private static long sizeInBytes(Directory dir) throws IOException {
+    long size = 0;
+    for (String file : dir.listAll()) {
+      size += dir.fileLength(file);
+    }
+    return size;
+  }
+
+  /**
+   * Measure the latency of a search on the class name and package name fields, to check that moving the index off the
+   * heap doesn't make searches slower.
+   */
+  private static void measureSearchLatency(Directory indexDir, Analyzer analyzer) {
+    try (var reader = DirectoryReader.open(indexDir)) {
+      var searcher = new IndexSearcher(reader);
+      var queryParser = new StandardQueryParser(analyzer);
+      Query query = new BooleanQuery.Builder()
+              .add(queryParser.parse("Parser", JavaClassIndexer.FIELD_CLASS_NAME), BooleanClause.Occur.SHOULD)
+              .add(queryParser.parse("classgraph", JavaClassIndexer.FIELD_PACKAGE_NAME), BooleanClause.Occur.SHOULD)
+              .build();
+
+      int iterations = 5_000;
+      for (int i = 0; i < iterations; i++) {
+        searcher.search(query, 10);
+      }
+      long[] latencies = new long[iterations];
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        searcher.search(query, 10);
+        latencies[i] = System.nanoTime() - start;
+      }
+      Arrays.sort(latencies);
+      log.info("Search latency over {} searches: p50={} us p99={} us", iterations, latencies[iterations / 2] / 1_000,
+              latencies[(int) (iterations * 0.99)] / 1_000);
+      log.info("");
+    } catch (IOException | QueryNodeException e) {
+      log.error("Unexpected error while measuring search latency", e);
+      System.exit(1);
     }
   }
 
@@ -54,9 +175,108 @@ public class Runner {
     }
   }
 
-  private static void index(Directory indexDir, Analyzer analyzer) {
+  /**
+   * Search the methods with block joins. The parents filter identifies the class documents. A block join relies on the
+   * order of the documents in the index: each class document comes right after the documents of its methods.
+   * <p>
+   * - {@link ToParentBlockJoinQuery} finds the classes with a method named "search". The join happens in the index,
+   *   while matching, so there is no second pass over the method hits.
+   * - {@link ToChildBlockJoinQuery} finds the methods of the "ClassGraph" classes.
+   */
+  private static void searchMethods(Directory indexDir) {
+    try (var reader = DirectoryReader.open(indexDir)) {
+      var searcher = new IndexSearcher(reader);
+      StoredFields storedFields = searcher.storedFields();
+      BitSetProducer parentsFilter = new QueryBitSetProducer(new TermQuery(new Term(JavaClassIndexer.FIELD_DOC_TYPE, JavaClassIndexer.DOC_TYPE_CLASS)));
+      log.info("The index has {} documents for {} classes", reader.numDocs(),
+              searcher.count(new TermQuery(new Term(JavaClassIndexer.FIELD_DOC_TYPE, JavaClassIndexer.DOC_TYPE_CLASS))));
+
+      Query classesWithMethod = new ToParentBlockJoinQuery(new TermQuery(new Term(JavaClassIndexer.FIELD_METHOD_NAME, "search")),
+              parentsFilter, ScoreMode.Max);
+      TopDocs classHits = searcher.search(classesWithMethod, 10);
+      log.info("Classes with a method named 'search': {} hits", classHits.totalHits);
+      for (ScoreDoc hit : classHits.scoreDocs) {
+        Document document = storedFields.document(hit.doc);
+        log.info("\tHit: {}.{}", document.get(JavaClassIndexer.FIELD_PACKAGE_NAME), document.get(JavaClassIndexer.FIELD_CLASS_NAME));
+      }
+
+      // The class name is analyzed by the standard analyzer, so the term is lower-cased.
+      Query methodsOfClass = new ToChildBlockJoinQuery(new TermQuery(new Term(JavaClassIndexer.FIELD_CLASS_NAME, "classgraph")),
+              parentsFilter);
+      TopDocs methodHits = searcher.search(methodsOfClass, 10);
+      log.info("Methods of the 'ClassGraph' classes: {} hits", methodHits.totalHits);
+      for (ScoreDoc hit : methodHits.scoreDocs) {
+        Document document = storedFields.document(hit.doc);
+        log.info("\tHit: {} {}({})", document.get(JavaClassIndexer.FIELD_RETURN_TYPE), document.get(JavaClassIndexer.FIELD_METHOD_NAME),
+                String.join(", ", document.getValues(JavaClassIndexer.FIELD_PARAMETER_TYPES)));
+      }
+
+      measureLatency("'classes with a method named search'", searcher, classesWithMethod);
+      measureLatency("'methods of ClassGraph'", searcher, methodsOfClass);
+      log.info("");
+    } catch (IOException e) {
+      log.error("Unexpected error while searching methods", e);
+      System.exit(1);
+    }
+  }
+
+  private static void measureLatency(String description, IndexSearcher searcher, Query query) throws IOException {
+    int iterations = 2_000;
+    for (int i = 0; i < iterations; i++) {
+      searcher.search(query, 10);
+    }
+    long[] latencies = new long[iterations];
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      searcher.search(query, 10);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    log.info("Latency of {} over {} searches: p50={} us p99={} us", description, iterations,
+            latencies[iterations / 2] / 1_000, latencies[(int) (iterations * 0.99)] / 1_000);
+  }
+
+  /**
+   * Build the class name suggester, show some suggestions and measure the lookup latency.
+   */
+  private static void suggest(Directory indexDir) {
+    try (var reader = DirectoryReader.open(indexDir)) {
+      long buildStart = System.nanoTime();
+      ClassNameSuggester suggester = ClassNameSuggester.build(reader);
+      log.info("Built the class name suggester in {} ms", (System.nanoTime() - buildStart) / 1_000_000);
+
+      List<String> typed = List.of("Pars", "CGr", "StQP", "IndexW", "Fst");
+      for (String prefix : typed) {
+        List<String> suggestions = suggester.suggest(prefix, 5).stream()
+                .map(ClassNameSuggester.Suggestion::binaryName)
+                .toList();
+        log.info("Suggestions for '{}': {}", prefix, suggestions);
+      }
+
+      // Warm up, then measure. The latencies are sorted to read off the percentiles.
+      int iterations = 20_000;
+      for (int i = 0; i < iterations; i++) {
+        suggester.suggest(typed.get(i % typed.size()), 10);
+      }
+      long[] latencies = new long[iterations];
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        suggester.suggest(typed.get(i % typed.size()), 10);
+        latencies[i] = System.nanoTime() - start;
+      }
+      Arrays.sort(latencies);
+      log.info("Suggestion latency over {} lookups: p50={} us p99={} us max={} us", iterations,
+              latencies[iterations / 2] / 1_000, latencies[(int) (iterations * 0.99)] / 1_000, latencies[iterations - 1] / 1_000);
+      log.info("");
+    } catch (IOException e) {
+      log.error("Unexpected error while suggesting", e);
+      System.exit(1);
+    }
+  }
+
+  private static void index(Directory indexDir, Analyzer analyzer, int scanThreads, int indexThreads, boolean indexMethods) {
     try (var indexWriter = indexWriter(indexDir, analyzer)) {
-      indexAllJavaClasses(indexWriter);
+      indexAllJavaClasses(indexWriter, scanThreads, indexThreads, indexMethods);
     } catch (Exception e) {
       log.error("Unexpected error while indexing.", e);
       System.exit(1);
@@ -101,26 +321,63 @@ public class Runner {
     log.info("");
   }
 
-  private static void indexAllJavaClasses(IndexWriter indexWriter) throws IOException {
-    log.info("Indexing all Java classes on the classpath");
-
-    ClassGraph classGraph = new ClassGraph().enableClassInfo().enableMethodInfo();
+  /**
+   * Scan the classpath and index every class.
+   * <p>
+   * ClassGraph scans the classpath elements in parallel. The scan has to finish before any class is available (the
+   * ClassGraph API hands over the classes all at once in the scan result), so the two phases are timed separately.
+   * The classes are then indexed in batches on a pool of threads, straight from the scan result. The index writer is
+   * thread-safe and gives each thread its own in-memory segment, so the batches are analyzed and inverted in parallel.
+   */
+  private static void indexAllJavaClasses(IndexWriter indexWriter, int scanThreads, int indexThreads, boolean indexMethods) throws IOException {
+    log.info("Indexing all Java classes on the classpath (scan threads: {}, index threads: {}, methods: {})", scanThreads,
+            indexThreads, indexMethods);
 
-    List<ClassInfo> classInfos;
-    try (var scanResult = classGraph.scan()) {
-      classInfos = scanResult.getAllClasses()
-              .stream()
-              .toList();
+    // Parsing the method info makes the scan slower, so only ask ClassGraph for it when the methods are indexed.
+    ClassGraph classGraph = new ClassGraph().enableClassInfo();
+    if (indexMethods) {
+      classGraph.enableMethodInfo();
     }
 
-    log.info("Found {} classes. Indexing them...\n", classInfos.size());
+    long scanStart = System.nanoTime();
+    try (var scanResult = classGraph.scan(scanThreads)) {
+      ClassInfoList classInfos = scanResult.getAllClasses();
+      long scanMillis = (System.nanoTime() - scanStart) / 1_000_000;
+      log.info("Scanned {} classes in {} ms. Indexing them...", classInfos.size(), scanMillis);
 
-    var indexer = new JavaClassIndexer(indexWriter);
-    for (var classInfo : classInfos) {
-      indexer.indexClass(classInfo);
+      long indexStart = System.nanoTime();
+      var indexer = new JavaClassIndexer(indexWriter, indexMethods);
+      ExecutorService executor = Executors.newFixedThreadPool(indexThreads);
+      try {
+        var futures = new ArrayList<Future<?>>();
+        for (int from = 0; from < classInfos.size(); from += INDEX_BATCH_SIZE) {
+          List<ClassInfo> batch = classInfos.subList(from, Math.min(from + INDEX_BATCH_SIZE, classInfos.size()));
+          futures.add(executor.submit(() -> {
+            indexer.indexClasses(batch);
+            return null;
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      } catch (ExecutionException e) {
+        throw new IOException("Unexpected error while indexing a batch of classes", e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while indexing", e);
+      } finally {
+        executor.shutdownNow();
+      }
+
+      long indexMillis = (System.nanoTime() - indexStart) / 1_000_000;
+      int docs = indexWriter.getDocStats().numDocs;
+      log.info("Indexing done. Scan: {} ms. Index: {} ms ({} classes/s, {} documents, {} documents/s).", scanMillis,
+              indexMillis, perSecond(classInfos.size(), indexMillis), docs, perSecond(docs, indexMillis));
     }
+  }
 
-    log.info("Indexing done.");
+  private static long perSecond(long count, long millis) {
+    return millis == 0 ? count : count * 1_000L / millis;
   }
 
   private static IndexWriter indexWriter(Directory dir, Analyzer analyzer) throws IOException {
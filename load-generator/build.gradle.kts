@@ -0,0 +1,40 @@
+plugins {
+    application
+}
+
+repositories {
+    mavenCentral()
+}
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(21))
+    }
+}
+
+dependencies {
+    implementation(libs.slf4j.api)
+    runtimeOnly(libs.slf4j.simple)
+
+    implementation(libs.hdrhistogram)
+    implementation(libs.jackson.databind)
+
+    // For the embedded mode. This is substituted with the included build. See 'settings.gradle.kts'.
+    implementation("dgroomes:http-api")
+
+    // The 'http-api' subproject declares its dependencies as 'implementation', so they are not on our compile classpath.
+    implementation(libs.lucene.core)
+    implementation(libs.lucene.analysis)
+}
+
+application {
+    mainClass.set("dgroomes.Runner")
+
+    // The search system logs every search at the info level. That's noise for a load test in the embedded mode.
+    applicationDefaultJvmArgs = listOf("-Dorg.slf4j.simpleLogger.log.dgroomes.TimeZoneSearchSystem=warn")
+}
+
+tasks.named<JavaExec>("run") {
+    // Resolve relative paths, like the default requests file, against this subproject's directory.
+    workingDir = projectDir
+}
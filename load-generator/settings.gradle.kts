@@ -0,0 +1,10 @@
+rootProject.name = "load-generator"
+
+// The embedded mode runs the search system of the 'http-api' subproject in-process. Like the benchmarks, this pulls in
+// 'http-api' as a Gradle "included build" and substitutes it for the made-up module coordinates used in
+// 'build.gradle.kts'. See https://docs.gradle.org/current/userguide/composite_builds.html
+includeBuild("../http-api") {
+    dependencySubstitution {
+        substitute(module("dgroomes:http-api")).using(project(":"))
+    }
+}
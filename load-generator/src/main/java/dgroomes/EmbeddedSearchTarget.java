@@ -0,0 +1,46 @@
+package dgroomes;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Runs the searches against a {@link TimeZoneSearchSystem} in the same process, with an in-memory index. There is no
+ * server to start and no network, so a load test is one offline command. It measures the search system alone, without
+ * the HTTP layer.
+ */
+class EmbeddedSearchTarget implements SearchTarget {
+
+  private final Directory indexDir = new ByteBuffersDirectory();
+  private final Directory taxonomyDir = new ByteBuffersDirectory();
+  private final Analyzer analyzer = new StandardAnalyzer();
+  private final TimeZoneSearchSystem searchSystem;
+
+  EmbeddedSearchTarget(ResultCacheSettings resultCacheSettings) {
+    searchSystem = TimeZoneSearchSystem.init(indexDir, analyzer, taxonomyDir,
+            SearchSystemSettings.defaults().withResultCache(resultCacheSettings));
+  }
+
+  @Override
+  public boolean search(ReplayRequest request) {
+    searchSystem.search(request.keyword(), request.size(), Optional.empty());
+    return true;
+  }
+
+  @Override
+  public String describe() {
+    return "embedded TimeZoneSearchSystem";
+  }
+
+  @Override
+  public void close() throws IOException {
+    searchSystem.close();
+    analyzer.close();
+    taxonomyDir.close();
+    indexDir.close();
+  }
+}
@@ -0,0 +1,53 @@
+package dgroomes;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends the searches to a running search service (the 'http-api' Runner) with the JDK HTTP client.
+ * <p>
+ * Each search blocks its own virtual thread until the whole response body has been read. The client keeps a pool of
+ * HTTP/1.1 connections and opens a new one whenever all the pooled connections are busy, so the number of open
+ * connections follows the number of searches in flight.
+ */
+class HttpSearchTarget implements SearchTarget {
+
+  private final URI baseUri;
+  private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+  private final HttpClient client;
+
+  HttpSearchTarget(URI baseUri) {
+    this.baseUri = baseUri;
+    this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(executor)
+            .build();
+  }
+
+  @Override
+  public boolean search(ReplayRequest request) throws Exception {
+    URI uri = baseUri.resolve("/?keyword=%s&size=%d".formatted(URLEncoder.encode(request.keyword(), StandardCharsets.UTF_8),
+            request.size()));
+    HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.discarding());
+    return response.statusCode() == 200;
+  }
+
+  @Override
+  public String describe() {
+    return "HTTP " + baseUri;
+  }
+
+  @Override
+  public void close() {
+    client.close();
+    executor.close();
+  }
+}
@@ -0,0 +1,200 @@
+package dgroomes;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the requests against a target, over and over, for a warmup period and then a measured period. Only the
+ * measured period is reported.
+ * <p>
+ * A naive load generator sends the next request when the previous response arrives, and measures each request from
+ * when it was actually sent. When the target stalls, the generator stalls with it and sends fewer requests, so the
+ * stall shows up in only a handful of measurements. That's "coordinated omission", and it makes the tail latency look
+ * far better than what users would see. The two loops deal with it differently:
+ * <p>
+ * - Open loop: the requests are sent on a fixed schedule, whether or not the earlier ones have been answered, and the
+ *   latency of each request is measured from when it was scheduled to be sent. A stall delays the requests behind it,
+ *   and their latency includes the wait. This is the model of many independent users.
+ * - Closed loop: a fixed number of workers each send a request and wait for the response. The measured latencies are
+ *   corrected afterward: the median latency of the warmup is taken as the expected interval between the requests of a
+ *   worker, and HdrHistogram backfills the requests a stalled worker would have sent. This is the model of a fixed
+ *   pool of clients, like a batch job.
+ * <p>
+ * The service time (from when the request was actually sent) is reported too, uncorrected. The gap between the two
+ * distributions is the time requests spent waiting.
+ */
+class LoadRun {
+
+  private static final Logger log = LoggerFactory.getLogger(LoadRun.class);
+
+  private final SearchTarget target;
+  private final List<ReplayRequest> requests;
+  private final Duration warmup;
+  private final Duration duration;
+
+  LoadRun(SearchTarget target, List<ReplayRequest> requests, Duration warmup, Duration duration) {
+    this.target = target;
+    this.requests = requests;
+    this.warmup = warmup;
+    this.duration = duration;
+  }
+
+  /**
+   * @param latency     the latency distribution, corrected for coordinated omission, in nanoseconds
+   * @param serviceTime the service time distribution, not corrected, in nanoseconds
+   */
+  record Report(String description, long completed, long errors, Duration duration, Histogram latency, Histogram serviceTime) {
+
+    double throughput() {
+      return completed * 1e9 / duration.toNanos();
+    }
+
+    void log() {
+      log.info("Load test against {}", description);
+      log.info("  Completed {} requests in {} s ({} requests/s). Errors: {}", completed, duration.toSeconds(),
+              "%.1f".formatted(throughput()), errors);
+      log.info("  Latency (corrected for coordinated omission): {}", percentiles(latency));
+      log.info("  Service time (not corrected):                 {}", percentiles(serviceTime));
+    }
+
+    private static String percentiles(Histogram histogram) {
+      return "p50=%s p99=%s p99.9=%s max=%s".formatted(
+              millis(histogram.getValueAtPercentile(50)),
+              millis(histogram.getValueAtPercentile(99)),
+              millis(histogram.getValueAtPercentile(99.9)),
+              millis(histogram.getMaxValue()));
+    }
+
+    private static String millis(long nanos) {
+      return "%.3f ms".formatted(nanos / 1e6);
+    }
+  }
+
+  /**
+   * Send requests at a fixed rate, each on its own virtual thread.
+   *
+   * @param maxInFlight the most requests in flight at once. When the target falls this far behind, the schedule waits
+   *                    for a request to finish. The latency is still measured from the schedule, so the wait counts.
+   */
+  Report openLoop(double ratePerSecond, int maxInFlight) {
+    var latency = new ConcurrentHistogram(3);
+    var serviceTime = new ConcurrentHistogram(3);
+    var completed = new AtomicLong();
+    var errors = new AtomicLong();
+    var inFlight = new Semaphore(maxInFlight);
+
+    long start = System.nanoTime();
+    long measureStart = start + warmup.toNanos();
+    long end = measureStart + duration.toNanos();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (long i = 0; ; i++) {
+        long scheduled = start + (long) (i * 1e9 / ratePerSecond);
+        if (scheduled >= end) {
+          break;
+        }
+        long wait = scheduled - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        inFlight.acquireUninterruptibly();
+        ReplayRequest request = requests.get((int) (i % requests.size()));
+        boolean measured = scheduled >= measureStart;
+        executor.execute(() -> {
+          try {
+            long sent = System.nanoTime();
+            boolean ok = send(request);
+            long done = System.nanoTime();
+            if (measured) {
+              if (ok) {
+                latency.recordValue(done - scheduled);
+                serviceTime.recordValue(done - sent);
+                completed.incrementAndGet();
+              } else {
+                errors.incrementAndGet();
+              }
+            }
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+    }
+    return new Report("%s, open loop at %.0f requests/s".formatted(target.describe(), ratePerSecond), completed.get(),
+            errors.get(), duration, latency, serviceTime);
+  }
+
+  /**
+   * Send requests from a fixed number of workers, each waiting for its response before it sends the next request.
+   */
+  Report closedLoop(int concurrency) {
+    var warmupServiceTime = new ConcurrentHistogram(3);
+    var serviceTime = new ConcurrentHistogram(3);
+    var completed = new AtomicLong();
+    var errors = new AtomicLong();
+    var next = new AtomicLong();
+
+    long start = System.nanoTime();
+    long measureStart = start + warmup.toNanos();
+    long end = measureStart + duration.toNanos();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int worker = 0; worker < concurrency; worker++) {
+        executor.execute(() -> {
+          while (true) {
+            long sent = System.nanoTime();
+            if (sent >= end) {
+              return;
+            }
+            boolean ok = send(requests.get((int) (next.getAndIncrement() % requests.size())));
+            long done = System.nanoTime();
+            if (sent < measureStart) {
+              if (ok) {
+                warmupServiceTime.recordValue(done - sent);
+              }
+            } else if (ok) {
+              serviceTime.recordValue(done - sent);
+              completed.incrementAndGet();
+            } else {
+              errors.incrementAndGet();
+            }
+          }
+        });
+      }
+    }
+
+    // Without a warmup, fall back to the median of the measured period. A stall drags that median up a bit, so the
+    // correction is a little too lenient.
+    Histogram baseline = warmupServiceTime.getTotalCount() > 0 ? warmupServiceTime : serviceTime;
+    long expectedInterval = Math.max(1, baseline.getValueAtPercentile(50));
+    log.info("Correcting for coordinated omission with an expected interval of {} us (the median service time)",
+            TimeUnit.NANOSECONDS.toMicros(expectedInterval));
+    Histogram latency = serviceTime.copyCorrectedForCoordinatedOmission(expectedInterval);
+    return new Report("%s, closed loop with %d workers".formatted(target.describe(), concurrency), completed.get(),
+            errors.get(), duration, latency, serviceTime);
+  }
+
+  /**
+   * Send a request. A failure is logged and counted, and the load goes on.
+   */
+  private boolean send(ReplayRequest request) {
+    try {
+      return target.search(request);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (Exception e) {
+      log.debug("The search for '{}' failed", request.keyword(), e);
+      return false;
+    }
+  }
+}
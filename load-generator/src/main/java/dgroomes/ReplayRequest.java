@@ -0,0 +1,46 @@
+package dgroomes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search to replay against the search service. The requests file is in the JSON Lines format: one JSON object per
+ * line, like this:
+ * <pre>
+ *   {"keyword": "Europe", "size": 20}
+ *   {"keyword": "Isla*"}
+ * </pre>
+ * The "size" (the page size) is optional. Blank lines are ignored.
+ */
+record ReplayRequest(String keyword, int size) {
+
+  static final int DEFAULT_SIZE = 20;
+
+  static List<ReplayRequest> readAll(Path path) throws IOException {
+    var mapper = new ObjectMapper();
+    var requests = new ArrayList<ReplayRequest>();
+    List<String> lines = Files.readAllLines(path);
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.isBlank()) {
+        continue;
+      }
+      JsonNode node = mapper.readTree(line);
+      JsonNode keyword = node.get("keyword");
+      if (keyword == null || !keyword.isTextual()) {
+        throw new IllegalArgumentException("Line %d of %s has no 'keyword' string: %s".formatted(i + 1, path, line));
+      }
+      requests.add(new ReplayRequest(keyword.asText(), node.path("size").asInt(DEFAULT_SIZE)));
+    }
+    if (requests.isEmpty()) {
+      throw new IllegalArgumentException("The requests file %s has no requests".formatted(path));
+    }
+    return requests;
+  }
+}
@@ -0,0 +1,66 @@
+package dgroomes;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * A load generator for the search service of the 'http-api' subproject. It replays the searches of a JSON Lines file
+ * and reports the throughput and the latency distribution. See the README for more information.
+ */
+public class Runner {
+  private static final Logger log = LoggerFactory.getLogger(Runner.class);
+
+  public static void main(String[] args) {
+    var options = CommandLineOptions.parse(args);
+    Path requestsFile = Path.of(options.string("requests", "keywords.jsonl"));
+    Duration warmup = Duration.ofSeconds(options.integer("warmup-s", 5));
+    Duration duration = Duration.ofSeconds(options.integer("duration-s", 30));
+    String loop = options.string("loop", "closed");
+
+    List<ReplayRequest> requests;
+    try {
+      requests = ReplayRequest.readAll(requestsFile);
+    } catch (IOException e) {
+      log.error("Could not read the requests file {}", requestsFile, e);
+      System.exit(1);
+      return;
+    }
+    log.info("Replaying {} requests from {}. Warmup: {} s. Duration: {} s.", requests.size(), requestsFile,
+            warmup.toSeconds(), duration.toSeconds());
+
+    try (SearchTarget target = target(options)) {
+      var run = new LoadRun(target, requests, warmup, duration);
+      LoadRun.Report report = switch (loop) {
+        case "open" -> run.openLoop(options.integer("rate", 1_000), options.integer("max-in-flight", 10_000));
+        case "closed" -> run.closedLoop(options.integer("concurrency", 16));
+        default -> throw new IllegalArgumentException("Unknown loop '%s'. Expected one of: open, closed".formatted(loop));
+      };
+      report.log();
+    } catch (Exception e) {
+      log.error("Unexpected error", e);
+      System.exit(1);
+    }
+  }
+
+  private static SearchTarget target(CommandLineOptions options) {
+    String mode = options.string("mode", "http");
+    return switch (mode) {
+      case "http" -> new HttpSearchTarget(URI.create(options.string("url", "http://localhost:8080")));
+      case "embedded" -> {
+        // Repeated keywords would be served from the result cache, which is not much of a load test. So it's off unless
+        // asked for.
+        int resultCacheSize = options.integer("result-cache-size", 0);
+        yield new EmbeddedSearchTarget(resultCacheSize == 0
+                ? ResultCacheSettings.disabled()
+                : new ResultCacheSettings(resultCacheSize, ResultCacheSettings.DEFAULT_MAX_WEIGHT));
+      }
+      default -> throw new IllegalArgumentException("Unknown mode '%s'. Expected one of: http, embedded".formatted(mode));
+    };
+  }
+}
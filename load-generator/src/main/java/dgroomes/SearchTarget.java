@@ -0,0 +1,23 @@
+package dgroomes;
+
+/**
+ * Where the load goes: a search service over HTTP, or a search system in the same process.
+ */
+interface SearchTarget extends AutoCloseable {
+
+  /**
+   * Run one search and wait for the complete response.
+   *
+   * @return true if the search succeeded
+   */
+  boolean search(ReplayRequest request) throws Exception;
+
+  /**
+   * A description of the target for the report.
+   */
+  String describe();
+
+  @Override
+  default void close() throws Exception {
+  }
+}
@@ -25,3 +25,5 @@ rootProject.name = "lucene-playground"
 includeBuild("simple")
 includeBuild("in-memory")
 includeBuild("http-api")
+includeBuild("benchmarks")
+includeBuild("load-generator")
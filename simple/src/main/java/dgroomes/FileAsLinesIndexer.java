@@ -2,53 +2,205 @@ package dgroomes;
 
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Given a file, treat each line of the file as a Lucene document and index the documents.
  * <p>
- * The shape of the index is:
+ * The shape of the index depends on the {@link DocumentShape}. For {@link DocumentShape#STORED_TEXT} it is:
  * <p>
  * - A {@link String} field named "file_name"
  * - A {@link IntPoint} field name "line_number"
  * - A {@link TextField} field named "contents"
+ * <p>
+ * For {@link DocumentShape#OFFSETS}, the contents are indexed but not stored. Instead, each document points back into
+ * the source file:
+ * <p>
+ * - A {@link SortedDocValuesField} field named "path" with the absolute path of the file
+ * - A {@link NumericDocValuesField} field named "line_offset" with the byte offset of the line in the file
+ * - A {@link NumericDocValuesField} field named "line_length" with the length of the line in bytes
+ * <p>
+ * Use {@link LineRetriever} to get the text of a hit in that shape.
+ * <p>
+ * Optionally, in either shape, the contents are also indexed into a suffix companion field, for fast leading wildcard
+ * searches. See {@link SuffixField}.
  */
 public class FileAsLinesIndexer {
 
   public static final String FIELD_FILE_NAME = "file_name";
   public static final String FIELD_LINE_NUMBER = "line_number";
   public static final String FIELD_CONTENTS = "contents";
+  public static final String FIELD_PATH = "path";
+  public static final String FIELD_LINE_OFFSET = "line_offset";
+  public static final String FIELD_LINE_LENGTH = "line_length";
   private static final Logger log = LoggerFactory.getLogger(FileAsLinesIndexer.class);
 
+  /**
+   * The most of a file that is mapped at once. It's the biggest a {@link ByteBuffer} can be.
+   */
+  private static final long MAX_WINDOW_BYTES = Integer.MAX_VALUE;
+
+  /**
+   * How the lines are represented in the index.
+   */
+  public enum DocumentShape {
+
+    /**
+     * The text of each line is stored in the index. The index duplicates the whole corpus, but a hit can be shown from
+     * the index alone.
+     */
+    STORED_TEXT,
+
+    /**
+     * Only the location of each line (file, byte offset and length) is stored, as doc values. The index is much
+     * smaller, and the text of a hit is sliced out of the source file. The source files must not change after indexing.
+     */
+    OFFSETS
+  }
+
+  /**
+   * Receives the documents of a file, one per line.
+   */
+  @FunctionalInterface
+  interface DocumentConsumer {
+    void accept(Document doc) throws IOException;
+  }
+
   private final IndexWriter indexWriter;
+  private final DocumentShape shape;
+  private final boolean indexSuffixes;
 
   public FileAsLinesIndexer(IndexWriter indexWriter) {
+    this(indexWriter, DocumentShape.STORED_TEXT);
+  }
+
+  public FileAsLinesIndexer(IndexWriter indexWriter, DocumentShape shape) {
+    this(indexWriter, shape, false);
+  }
+
+  /**
+   * @param indexSuffixes also index the contents into the suffix companion field. The index writer's analyzer must be
+   *                      wrapped with {@link SuffixField#wrap} for the {@link #FIELD_CONTENTS} field.
+   */
+  public FileAsLinesIndexer(IndexWriter indexWriter, DocumentShape shape, boolean indexSuffixes) {
     this.indexWriter = indexWriter;
+    this.shape = shape;
+    this.indexSuffixes = indexSuffixes;
   }
 
   public void indexFile(Path path) {
+    try {
+      readDocuments(path, indexWriter::addDocument);
+    } catch (IOException e) {
+      log.error("Unexpected error while indexing the file {}", path, e);
+    }
+  }
+
+  /**
+   * Read the file and turn each line into a document. This does not index the documents.
+   * <p>
+   * The file is memory-mapped and scanned for line breaks as raw bytes. A line ends with '\n', '\r' or "\r\n", the same
+   * as for {@link java.io.BufferedReader#readLine()}. This works because in UTF-8 the bytes for '\n' and '\r' never occur
+   * inside a multibyte character. Only the bytes of each line are decoded into text, with an explicit decoder. This way
+   * we know the byte offset and length of every line, which a {@link java.io.Reader} would hide from us.
+   * <p>
+   * A buffer can't be bigger than 2 GiB, so a bigger file is mapped in windows, one after another. A line that doesn't
+   * end in a window is read again from the start of the next window.
+   *
+   * @return the number of lines
+   */
+  int readDocuments(Path path, DocumentConsumer consumer) throws IOException {
     var fileName = path.getFileName().toString();
+    var absolutePath = new BytesRef(path.toAbsolutePath().toString());
+    CharsetDecoder decoder = newDecoder();
 
-    // Note: it would be nice to use streams to do this work, but I need both the line text and the line
-    // number. I think it's possible to make my own spliterator or whatever but that detracts from the demo.
-    try (var fileReader = new FileReader(path.toFile()); var bufferedReader = new BufferedReader(fileReader)) {
+    int lineNumber = 1; // Use 1-indexed because that's how line numbers are usually represented.
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long windowStart = 0;
+      while (windowStart < size) {
+        long windowLength = Math.min(size - windowStart, MAX_WINDOW_BYTES);
+        boolean lastWindow = windowStart + windowLength == size;
+        // The mapping stays valid after the channel is closed.
+        MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLength);
 
-      int lineNumber = 1; // Use 1-indexed because that's how line numbers are usually represented.
+        int lineStart = 0;
+        int limit = window.limit();
+        while (lineStart < limit) {
+          int lineEnd = lineStart;
+          byte b = 0;
+          while (lineEnd < limit && (b = window.get(lineEnd)) != '\n' && b != '\r') {
+            lineEnd++;
+          }
 
-      String textContent;
-      while ((textContent = bufferedReader.readLine()) != null) {
-        var doc = toDocument(textContent, fileName, lineNumber);
-        indexWriter.addDocument(doc);
-        lineNumber++;
+          int next;
+          if (lineEnd == limit) {
+            if (!lastWindow) {
+              break; // The line goes on in the next window.
+            }
+            next = limit;
+          } else if (b == '\r') {
+            if (lineEnd + 1 == limit && !lastWindow) {
+              break; // A '\n' may follow in the next window.
+            }
+            next = lineEnd + 1 < limit && window.get(lineEnd + 1) == '\n' ? lineEnd + 2 : lineEnd + 1;
+          } else {
+            next = lineEnd + 1;
+          }
+
+          int length = lineEnd - lineStart;
+          String text = decode(decoder, window.slice(lineStart, length));
+          Document doc = switch (shape) {
+            case STORED_TEXT -> toDocument(text, fileName, lineNumber);
+            case OFFSETS -> toOffsetsDocument(text, fileName, lineNumber, absolutePath, windowStart + lineStart, length);
+          };
+          if (indexSuffixes) {
+            doc.add(new TextField(SuffixField.companion(FIELD_CONTENTS), text, Field.Store.NO));
+          }
+          consumer.accept(doc);
+
+          lineNumber++;
+          lineStart = next;
+        }
+
+        if (lineStart == 0 && !lastWindow) {
+          throw new IOException("The line %d of the file %s is longer than %d bytes".formatted(lineNumber, path, MAX_WINDOW_BYTES));
+        }
+        windowStart += lineStart;
       }
-    } catch (IOException e) {
-      log.error("Unexpected error while ");
+    }
+    return lineNumber - 1;
+  }
+
+  /**
+   * A decoder is stateful and not thread-safe, so each file gets its own. Malformed bytes are replaced instead of
+   * failing the whole file.
+   */
+  static CharsetDecoder newDecoder() {
+    return StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  static String decode(CharsetDecoder decoder, ByteBuffer bytes) {
+    try {
+      return decoder.decode(bytes).toString();
+    } catch (CharacterCodingException e) {
+      // The decoder replaces bad input instead of reporting it, so this can't happen.
+      throw new IllegalStateException(e);
     }
   }
 
@@ -64,7 +216,7 @@ public class FileAsLinesIndexer {
    * @param lineNumber - The line number in the file that the text comes from.
    * @return a Lucene {@link Document}. It still needs to be indexed.
    */
-  private Document toDocument(String text, String fileName, int lineNumber) {
+  static Document toDocument(String text, String fileName, int lineNumber) {
     var doc = new Document();
 
     // The name of the file is in-scope for searching. So, include it in the document.
@@ -80,4 +232,20 @@ public class FileAsLinesIndexer {
 
     return doc;
   }
+
+  /**
+   * Like {@link #toDocument} but nothing is stored. The text is only indexed, and the location of the line is kept in
+   * doc values. Doc values are column-oriented and uncompressed (well, bit-packed), so reading the location of a hit is
+   * a cheap lookup instead of the decompression of a block of stored fields.
+   */
+  private static Document toOffsetsDocument(String text, String fileName, int lineNumber, BytesRef path, long offset, int length) {
+    var doc = new Document();
+    doc.add(new StringField(FIELD_FILE_NAME, fileName, Field.Store.NO));
+    doc.add(new IntPoint(FIELD_LINE_NUMBER, lineNumber));
+    doc.add(new TextField(FIELD_CONTENTS, text, Field.Store.NO));
+    doc.add(new SortedDocValuesField(FIELD_PATH, path));
+    doc.add(new NumericDocValuesField(FIELD_LINE_OFFSET, offset));
+    doc.add(new NumericDocValuesField(FIELD_LINE_LENGTH, length));
+    return doc;
+  }
 }
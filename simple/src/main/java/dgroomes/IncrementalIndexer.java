@@ -0,0 +1,217 @@
+package dgroomes;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Bring the index up to date with a directory of files by reindexing only the files that changed.
+ * <p>
+ * The index carries a manifest in its commit user data: for every indexed file, its size, modification time and a hash
+ * of its content. On the next run, each file is compared to the manifest:
+ * <p>
+ * - Same size and modification time: unchanged. This is the fast path, and it doesn't read the file.
+ * - Otherwise, the content is hashed. Same hash: unchanged (the file was only touched).
+ * - Otherwise, or if the file is new: its old lines are deleted by the "file_name" term and the file is indexed again.
+ * - Files in the manifest that no longer exist: their lines are deleted.
+ * <p>
+ * The new manifest is committed together with the changes, so the manifest always describes the committed index. The
+ * work depends on how much changed, not on the size of the corpus.
+ * <p>
+ * Files are identified by their file name, because that's what the "file_name" field holds. Two files with the same
+ * name in different subdirectories are not supported.
+ */
+public class IncrementalIndexer {
+
+  private static final Logger log = LoggerFactory.getLogger(IncrementalIndexer.class);
+  private static final String MANIFEST_PREFIX = "file:";
+  private static final String SHAPE_KEY = "document_shape";
+
+  private final IndexWriter indexWriter;
+  private final FileAsLinesIndexer.DocumentShape shape;
+  private final boolean indexSuffixes;
+  private final FileAsLinesIndexer fileAsLinesIndexer;
+
+  /**
+   * @param indexWriter an index writer opened with {@link org.apache.lucene.index.IndexWriterConfig.OpenMode#CREATE_OR_APPEND}
+   *                    so that it starts from the last commit
+   * @param indexSuffixes also index the contents into the suffix companion field. See {@link SuffixField}.
+   */
+  public IncrementalIndexer(IndexWriter indexWriter, FileAsLinesIndexer.DocumentShape shape, boolean indexSuffixes) {
+    this.indexWriter = indexWriter;
+    this.shape = shape;
+    this.indexSuffixes = indexSuffixes;
+    this.fileAsLinesIndexer = new FileAsLinesIndexer(indexWriter, shape, indexSuffixes);
+  }
+
+  /**
+   * What a file looked like when it was indexed.
+   */
+  private record ManifestEntry(long size, long modifiedMillis, String sha256) {
+
+    static ManifestEntry parse(String value) {
+      String[] parts = value.split(":", 3);
+      return new ManifestEntry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+    }
+
+    String format() {
+      return "%d:%d:%s".formatted(size, modifiedMillis, sha256);
+    }
+  }
+
+  /**
+   * The counts of a reindex run.
+   */
+  public record Report(int added, int changed, int unchanged, int deleted, long elapsedNanos) {
+
+    @Override
+    public String toString() {
+      return "%d added, %d changed, %d unchanged, %d deleted in %d ms".formatted(added, changed, unchanged, deleted,
+              elapsedNanos / 1_000_000);
+    }
+  }
+
+  public Report reindex(Path documentsDir) throws IOException {
+    long start = System.nanoTime();
+    Map<String, ManifestEntry> previous = readManifest();
+    Map<String, Path> files = findFiles(documentsDir);
+
+    var manifest = new HashMap<String, ManifestEntry>();
+    int added = 0;
+    int changed = 0;
+    int unchanged = 0;
+    for (var file : files.entrySet()) {
+      String fileName = file.getKey();
+      Path path = file.getValue();
+      long size = Files.size(path);
+      long modifiedMillis = Files.getLastModifiedTime(path).toMillis();
+      ManifestEntry old = previous.get(fileName);
+
+      if (old != null && old.size() == size && old.modifiedMillis() == modifiedMillis) {
+        manifest.put(fileName, old);
+        unchanged++;
+        continue;
+      }
+
+      String sha256 = sha256(path);
+      var entry = new ManifestEntry(size, modifiedMillis, sha256);
+      manifest.put(fileName, entry);
+      if (old != null && old.sha256().equals(sha256)) {
+        unchanged++;
+        continue;
+      }
+
+      // Delete first even for a new file. If an earlier run failed halfway through the file, some of its lines may be
+      // in the index without being in the manifest.
+      indexWriter.deleteDocuments(new Term(FileAsLinesIndexer.FIELD_FILE_NAME, fileName));
+      fileAsLinesIndexer.readDocuments(path, indexWriter::addDocument);
+      if (old == null) {
+        added++;
+      } else {
+        changed++;
+      }
+    }
+
+    int deleted = 0;
+    for (String fileName : previous.keySet()) {
+      if (!files.containsKey(fileName)) {
+        indexWriter.deleteDocuments(new Term(FileAsLinesIndexer.FIELD_FILE_NAME, fileName));
+        deleted++;
+      }
+    }
+
+    writeManifest(manifest);
+    indexWriter.commit();
+    return new Report(added, changed, unchanged, deleted, System.nanoTime() - start);
+  }
+
+  /**
+   * Read the manifest of the last commit. If the index was written in a different document shape, or with or without the
+   * suffix companion field, start over with an empty index and an empty manifest.
+   */
+  private Map<String, ManifestEntry> readManifest() throws IOException {
+    var userData = new HashMap<String, String>();
+    Iterable<Map.Entry<String, String>> liveCommitData = indexWriter.getLiveCommitData();
+    if (liveCommitData != null) {
+      liveCommitData.forEach(entry -> userData.put(entry.getKey(), entry.getValue()));
+    }
+
+    String previousShape = userData.get(SHAPE_KEY);
+    if (!layout().equals(previousShape)) {
+      if (indexWriter.getDocStats().maxDoc > 0) {
+        log.info("The index was written in the {} document shape. Rebuilding it in the {} shape.", previousShape, layout());
+        indexWriter.deleteAll();
+      }
+      return Map.of();
+    }
+
+    var manifest = new HashMap<String, ManifestEntry>();
+    userData.forEach((key, value) -> {
+      if (key.startsWith(MANIFEST_PREFIX)) {
+        manifest.put(key.substring(MANIFEST_PREFIX.length()), ManifestEntry.parse(value));
+      }
+    });
+    return manifest;
+  }
+
+  /**
+   * The document shape, plus whether the suffix companion field is indexed. An index written without the suffixes keeps
+   * the plain shape name, so it's still recognized.
+   */
+  private String layout() {
+    return indexSuffixes ? shape.name() + "+SUFFIXES" : shape.name();
+  }
+
+  private void writeManifest(Map<String, ManifestEntry> manifest) {
+    var userData = new HashMap<String, String>();
+    userData.put(SHAPE_KEY, layout());
+    manifest.forEach((fileName, entry) -> userData.put(MANIFEST_PREFIX + fileName, entry.format()));
+    indexWriter.setLiveCommitData(userData.entrySet());
+  }
+
+  private static Map<String, Path> findFiles(Path documentsDir) throws IOException {
+    var files = new HashMap<String, Path>();
+    Files.walkFileTree(documentsDir, new SimpleFileVisitor<>() {
+      @Override
+      public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) {
+          Path existing = files.put(path.getFileName().toString(), path);
+          if (existing != null) {
+            throw new IllegalStateException("Files are identified by name, but %s and %s have the same name".formatted(existing, path));
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return files;
+  }
+
+  private static String sha256(Path path) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available in the JDK", e);
+    }
+    try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+      in.transferTo(OutputStream.nullOutputStream());
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
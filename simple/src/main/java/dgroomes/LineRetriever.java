@@ -0,0 +1,108 @@
+package dgroomes;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Get the text of a hit from an index in the {@link FileAsLinesIndexer.DocumentShape#OFFSETS} shape.
+ * <p>
+ * The document only knows where its line is: the file, the byte offset and the length. The line is sliced out of a
+ * memory-mapped view of the file. The slice shares memory with the mapping (it's a view, not a copy), and the
+ * operating system pages in only the parts of the file that are actually read. Each file is mapped once and the
+ * mapping is reused for every hit in that file. The exception is a file over 2 GiB, which is too big for one mapping.
+ * Only the line is mapped for each of its hits.
+ * <p>
+ * The mappings are released by the garbage collector when the retriever is no longer reachable. Java has no public API
+ * to unmap a file sooner.
+ */
+public class LineRetriever {
+
+  /**
+   * Where a line is, and a zero-copy view of its bytes.
+   */
+  public record Line(String path, long offset, int length, ByteBuffer bytes) {
+
+    /**
+     * Decode the bytes of the line. This is the only copy of the line's content.
+     */
+    public String text() {
+      return FileAsLinesIndexer.decode(FileAsLinesIndexer.newDecoder(), bytes.duplicate());
+    }
+  }
+
+  private final IndexReader reader;
+  private final Map<String, MappedByteBuffer> mappings = new ConcurrentHashMap<>();
+
+  public LineRetriever(IndexReader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * Find the line of a hit.
+   *
+   * @param doc the document ID of the hit, relative to the top-level reader (the same as in the search results)
+   */
+  public Line line(int doc) throws IOException {
+    List<LeafReaderContext> leaves = reader.leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+    LeafReader leafReader = leaf.reader();
+    int leafDoc = doc - leaf.docBase;
+
+    // Doc values are iterators that only move forward, so they are created for every lookup. That's cheap, and it means
+    // the hits can be looked up in any order.
+    SortedDocValues paths = DocValues.getSorted(leafReader, FileAsLinesIndexer.FIELD_PATH);
+    NumericDocValues offsets = DocValues.getNumeric(leafReader, FileAsLinesIndexer.FIELD_LINE_OFFSET);
+    NumericDocValues lengths = DocValues.getNumeric(leafReader, FileAsLinesIndexer.FIELD_LINE_LENGTH);
+    if (!paths.advanceExact(leafDoc) || !offsets.advanceExact(leafDoc) || !lengths.advanceExact(leafDoc)) {
+      throw new IllegalStateException("Document %d has no line location. Was it indexed in the 'offsets' shape?".formatted(doc));
+    }
+
+    String path = paths.lookupOrd(paths.ordValue()).utf8ToString();
+    long offset = offsets.longValue();
+    int length = (int) lengths.longValue();
+    return new Line(path, offset, length, slice(path, offset, length).asReadOnlyBuffer());
+  }
+
+  /**
+   * A view of the bytes of a line. A file that is too big to map in one piece (over 2 GiB) isn't cached. Only the line
+   * is mapped, on every lookup.
+   */
+  private ByteBuffer slice(String path, long offset, int length) throws IOException {
+    MappedByteBuffer mapped = mappings.get(path);
+    if (mapped == null) {
+      try (var channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (offset + length > size) {
+          throw new IllegalStateException("The file %s is shorter than when it was indexed".formatted(path));
+        }
+        if (size > Integer.MAX_VALUE) {
+          return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      MappedByteBuffer existing = mappings.putIfAbsent(path, mapped);
+      if (existing != null) {
+        mapped = existing;
+      }
+    }
+    if (offset + length > mapped.limit()) {
+      throw new IllegalStateException("The file %s is shorter than when it was indexed".formatted(path));
+    }
+    return mapped.slice((int) offset, length);
+  }
+}
@@ -0,0 +1,294 @@
+package dgroomes;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Index a directory of files as lines, like {@link FileAsLinesIndexer}, but using all the cores.
+ * <p>
+ * The pipeline has three parts:
+ * <p>
+ * - The thread that calls {@link #ingest} walks the directory tree and puts the file paths on a bounded queue
+ * - A pool of workers that take paths off the queue, read the files and turn the lines into documents
+ * - Batched calls to {@link IndexWriter#addDocuments}
+ * <p>
+ * The {@link IndexWriter} is thread-safe, and internally each indexing thread gets its own in-memory segment writer (a
+ * "DWPT"). So the analysis and inversion work of the workers runs in parallel, and the workers only meet when a
+ * segment is flushed. Handing over a batch of documents instead of one at a time cuts down the per-call overhead.
+ * <p>
+ * The queue is bounded so that a fast walk doesn't pile up paths in memory when the workers can't keep up. The calling
+ * thread blocks instead ("backpressure").
+ * <p>
+ * The index can be split into shards, each with its own index writer. A file is routed to a shard by a hash of its file
+ * name, so all the lines of a file end up in the same shard. Each worker keeps a batch per shard.
+ */
+public class ParallelFileIngester {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelFileIngester.class);
+
+  /**
+   * Put on the queue once for each worker when the walk is done. It's compared by identity.
+   */
+  private static final Path END = Path.of("");
+
+  private final List<IndexWriter> shards;
+  private final FileAsLinesIndexer indexer;
+  private final int workers;
+  private final int queueCapacity;
+  private final int batchSize;
+
+  /**
+   * @param shape         how the lines are represented in the index
+   * @param indexSuffixes also index the contents into the suffix companion field. See {@link SuffixField}.
+   * @param workers       the number of threads that read files and build documents
+   * @param queueCapacity the maximum number of paths that are waiting for a worker
+   * @param batchSize     the number of documents a worker collects before it hands them to the index writer
+   */
+  public ParallelFileIngester(IndexWriter indexWriter, FileAsLinesIndexer.DocumentShape shape, boolean indexSuffixes,
+                              int workers, int queueCapacity, int batchSize) {
+    this(List.of(indexWriter), shape, indexSuffixes, workers, queueCapacity, batchSize);
+  }
+
+  /**
+   * @param shards the index writer of each shard. See {@link #shardOf}.
+   */
+  public ParallelFileIngester(List<IndexWriter> shards, FileAsLinesIndexer.DocumentShape shape, boolean indexSuffixes,
+                              int workers, int queueCapacity, int batchSize) {
+    if (shards.isEmpty() || workers < 1 || queueCapacity < 1 || batchSize < 1) {
+      throw new IllegalArgumentException("The shards, workers, queue capacity and batch size must be at least 1 but were %d, %d, %d and %d"
+              .formatted(shards.size(), workers, queueCapacity, batchSize));
+    }
+    this.shards = List.copyOf(shards);
+    // The indexer only reads files into documents here. The documents are handed to the index writers in batches.
+    this.indexer = new FileAsLinesIndexer(shards.get(0), shape, indexSuffixes);
+    this.workers = workers;
+    this.queueCapacity = queueCapacity;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * The totals of an ingestion run.
+   */
+  public record Report(long files, long lines, long bytes, long elapsedNanos) {
+
+    double linesPerSecond() {
+      return lines / (elapsedNanos / 1e9);
+    }
+
+    double megabytesPerSecond() {
+      return bytes / (1024.0 * 1024.0) / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return "%,d files, %,d lines, %,.1f MB in %,d ms (%,.0f lines/s, %,.1f MB/s)".formatted(files, lines,
+              bytes / (1024.0 * 1024.0), elapsedNanos / 1_000_000, linesPerSecond(), megabytesPerSecond());
+    }
+  }
+
+  /**
+   * The counts of one worker. They are summed up at the end, so the workers don't contend on shared counters.
+   */
+  private record WorkerCounts(long files, long lines, long bytes) {}
+
+  public Report ingest(Path documentsDir) throws IOException {
+    log.info("Indexing the directory {} into {} shard(s) with {} workers (queue capacity {}, batch size {})",
+            documentsDir.toAbsolutePath(), shards.size(), workers, queueCapacity, batchSize);
+    long start = System.nanoTime();
+
+    BlockingQueue<Path> queue = new ArrayBlockingQueue<>(queueCapacity);
+    var failed = new AtomicBoolean(false);
+    ExecutorService executor = Executors.newFixedThreadPool(workers, Thread.ofPlatform().name("ingest-worker-", 0).factory());
+    // The workers are joined in the order they finish, so a failed worker is seen as soon as it fails. When a worker
+    // fails, the walk stops without signalling the end, and the other workers would wait in "take" forever.
+    var completionService = new ExecutorCompletionService<WorkerCounts>(executor);
+    try {
+      for (int i = 0; i < workers; i++) {
+        completionService.submit(() -> {
+          try {
+            return work(queue);
+          } catch (Exception e) {
+            failed.set(true);
+            throw e;
+          }
+        });
+      }
+
+      walk(documentsDir, queue, failed);
+
+      long files = 0;
+      long lines = 0;
+      long bytes = 0;
+      for (int i = 0; i < workers; i++) {
+        WorkerCounts counts = completionService.take().get();
+        files += counts.files();
+        lines += counts.lines();
+        bytes += counts.bytes();
+      }
+      return new Report(files, lines, bytes, System.nanoTime() - start);
+    } catch (ExecutionException e) {
+      throw new IOException("An ingestion worker failed", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while ingesting", e);
+    } finally {
+      stop(executor);
+    }
+  }
+
+  /**
+   * Interrupt the workers that are still running, which are the ones waiting for a path after another worker failed,
+   * and wait for them to exit. The caller may close the index writers next, so no worker may still be adding
+   * documents.
+   */
+  private static void stop(ExecutorService executor) {
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        log.warn("The ingestion workers did not stop within a minute");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Walk the directory tree and put each file on the queue. When the walk is done, signal the end to every worker.
+   */
+  private void walk(Path documentsDir, BlockingQueue<Path> queue, AtomicBoolean failed) throws IOException, InterruptedException {
+    try {
+      Files.walkFileTree(documentsDir, new SimpleFileVisitor<>() {
+        @Override
+        public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+          if (!attrs.isRegularFile()) {
+            return FileVisitResult.CONTINUE;
+          }
+          try {
+            return put(queue, path, failed) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+          } catch (InterruptedException e) {
+            throw new WalkInterruptedException(e);
+          }
+        }
+      });
+    } catch (WalkInterruptedException e) {
+      throw (InterruptedException) e.getCause();
+    }
+
+    for (int i = 0; i < workers; i++) {
+      if (!put(queue, END, failed)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Put a path on the queue, waiting for space if the queue is full. If a worker has failed, the queue may never drain,
+   * so give up instead of waiting forever.
+   *
+   * @return false if a worker has failed
+   */
+  private static boolean put(BlockingQueue<Path> queue, Path path, AtomicBoolean failed) throws InterruptedException {
+    while (!failed.get()) {
+      if (queue.offer(path, 100, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The shard of a file. {@link String#hashCode()} is specified by the language, so a file lands in the same shard on
+   * every run and every JVM.
+   */
+  static int shardOf(Path path, int shardCount) {
+    return Math.floorMod(path.getFileName().toString().hashCode(), shardCount);
+  }
+
+  /**
+   * Take files off the queue until the end is signalled. Turn every line into a document and hand the documents to the
+   * index writer of the file's shard in batches. A batch may span files.
+   * <p>
+   * The lines of a file only go into the batch once the whole file has been read. So a file that fails halfway through
+   * leaves nothing behind in the index, instead of a part of its lines with no record that the rest is missing. The
+   * price is that the documents of one file are held in memory at once.
+   */
+  private WorkerCounts work(BlockingQueue<Path> queue) throws IOException, InterruptedException {
+    long files = 0;
+    long lines = 0;
+    long bytes = 0;
+    var batches = new ArrayList<List<Document>>(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      batches.add(new ArrayList<>(batchSize));
+    }
+
+    Path path;
+    while ((path = queue.take()) != END) {
+      int shard = shardOf(path, shards.size());
+      var fileDocs = new ArrayList<Document>();
+      try {
+        lines += indexer.readDocuments(path, fileDocs::add);
+        bytes += Files.size(path);
+        files++;
+      } catch (IOException e) {
+        // A file that can't be read is skipped, and none of its lines are indexed.
+        log.error("Unexpected error while reading the file {}", path, e);
+        continue;
+      }
+
+      List<Document> batch = batches.get(shard);
+      batch.addAll(fileDocs);
+      if (batch.size() >= batchSize) {
+        addDocuments(shard, batch);
+      }
+    }
+
+    for (int shard = 0; shard < shards.size(); shard++) {
+      if (!batches.get(shard).isEmpty()) {
+        addDocuments(shard, batches.get(shard));
+      }
+    }
+    return new WorkerCounts(files, lines, bytes);
+  }
+
+  /**
+   * Hand the batch to the index writer of the shard and clear it. Unlike a file that can't be read, a failure here is fatal, so it's
+   * rethrown unchecked to get past the per-file error handling.
+   */
+  private void addDocuments(int shard, List<Document> batch) {
+    try {
+      shards.get(shard).addDocuments(batch);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    batch.clear();
+  }
+
+  /**
+   * Carries an {@link InterruptedException} out of the file visitor, which may only throw {@link IOException}.
+   */
+  private static class WalkInterruptedException extends IOException {
+    WalkInterruptedException(InterruptedException cause) {
+      super(cause);
+    }
+  }
+}
@@ -1,7 +1,7 @@
 package dgroomes;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.document.IntPoint;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
@@ -9,11 +9,12 @@ import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
-import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +24,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * This is a simple demo of Apache Lucene. It indexes and searches over the short stories in this Git repository.
@@ -32,43 +37,81 @@ import java.nio.file.attribute.BasicFileAttributes;
 public class Runner {
   private static final Path SHORT_STORIES_DIR = Path.of("short-stories");
   private static final Path INDEX_DIR = Path.of("index");
+  private static final Path SHARDS_DIR = Path.of("index-shards");
   private static final Logger log = LoggerFactory.getLogger(Runner.class);
 
   public static void main(String[] args) {
+    var options = CommandLineOptions.parse(args);
+    Path documentsDir = Path.of(options.string("documents-dir", SHORT_STORIES_DIR.toString()));
+    String ingestion = options.string("ingestion", "sequential");
+    boolean parallel = switch (ingestion) {
+      case "sequential" -> false;
+      case "parallel" -> true;
+      default -> throw new IllegalArgumentException("Unknown ingestion mode '%s'. Expected one of: sequential, parallel".formatted(ingestion));
+    };
+    FileAsLinesIndexer.DocumentShape shape = documentShape(options);
+    boolean indexSuffixes = indexSuffixes(options);
+    String reindex = options.string("reindex", "full");
+    boolean incremental = switch (reindex) {
+      case "full" -> false;
+      case "incremental" -> true;
+      default -> throw new IllegalArgumentException("Unknown reindex mode '%s'. Expected one of: full, incremental".formatted(reindex));
+    };
+    int shards = options.integer("shards", 1);
+    if (shards < 1) {
+      throw new IllegalArgumentException("The '--shards' option must be at least 1 but was %d".formatted(shards));
+    }
+    if (shards > 1 && incremental) {
+      throw new IllegalArgumentException("The incremental reindex mode doesn't support more than one shard");
+    }
+    List<Path> indexDirs = indexDirs(shards);
 
-    try (var indexDir = FSDirectory.open(INDEX_DIR);
-         var analyzer = new StandardAnalyzer();
-         var indexWriter = indexWriter(indexDir, analyzer)) {
-
-      indexFilesInDirectory(indexWriter, SHORT_STORIES_DIR);
+    try (var analyzer = analyzer(indexSuffixes)) {
+      List<IndexWriter> indexWriters = openIndexWriters(indexDirs, analyzer, incremental);
+      try {
+        if (incremental) {
+          // The incremental mode reindexes only the changed files, sequentially.
+          log.info("Incrementally reindexing the directory: {}", documentsDir.toAbsolutePath());
+          IncrementalIndexer.Report report = new IncrementalIndexer(indexWriters.get(0), shape, indexSuffixes).reindex(documentsDir);
+          log.info("Reindexing done: {}", report);
+        } else if (parallel || shards > 1) {
+          // The shards are always written in parallel. The parallel ingester routes each file to its shard.
+          indexFilesInDirectoryInParallel(indexWriters, documentsDir, shape, indexSuffixes, options);
+        } else {
+          indexFilesInDirectory(indexWriters.get(0), documentsDir, shape, indexSuffixes);
+        }
+      } finally {
+        closeIndexWriters(indexWriters);
+      }
     } catch (Exception e) {
       log.error("Unexpected error while indexing.", e);
       System.exit(1);
     }
 
-    try (var indexDir = FSDirectory.open(INDEX_DIR);
+    try (var searcher = ShardedSearcher.open(indexDirs);
          var analyzer = new StandardAnalyzer()) {
 
-      var reader = DirectoryReader.open(indexDir);
-      var searcher = new IndexSearcher(reader);
+      log.info("The index is {} KiB in {} shard(s). Document shape: {}. Suffix field: {}", sizeInBytes(searcher) / 1024,
+              shards, shape, indexSuffixes);
+      var hitPrinter = hitPrinter(searcher, shape);
 
       log.info("Let's do a basic search. Searching for 'explorer' ...");
-      search(searcher, analyzer, "explorer");
+      search(searcher, hitPrinter, analyzer, indexSuffixes, "explorer");
 
       log.info("Now, let's do a leading wildcard search. Searching for '*fish' ...");
-      search(searcher, analyzer, "*fish");
+      search(searcher, hitPrinter, analyzer, indexSuffixes, "*fish");
 
       log.info("Now, let's do an English language-oriented search. Searching for 'entity' (this will yield 0 results!) ...");
       // This will yield no results even though we know the word 'entities' appears in the 'sky.txt' short story. The
       // content was indexed and searched with the Lucene StandardAnalyzer which does not perform stemming. By contrast,
       // the EnglishAnalyzer would stem the words 'entity' and 'entities' to their common root form 'entiti'. It's
       // important to understand the analyzer you're using and how it affects the index and the search.
-      search(searcher, analyzer, "entity");
+      search(searcher, hitPrinter, analyzer, indexSuffixes, "entity");
 
       log.info("Now, let's do a range search. Searching for lines 2 and earlier ...");
       {
         Query query = IntPoint.newRangeQuery(FileAsLinesIndexer.FIELD_LINE_NUMBER, Integer.MIN_VALUE, 2);
-        search(searcher, query);
+        search(searcher, hitPrinter, query);
       }
     } catch (Exception e) {
       log.error("Unexpected error while searching.", e);
@@ -76,48 +119,130 @@ public class Runner {
     }
   }
 
-  private static void search(IndexSearcher searcher, StandardAnalyzer analyzer, String word) throws QueryNodeException, IOException {
+  /**
+   * @param indexSuffixes whether the suffix companion field was indexed. If so, leading and infix wildcards are rewritten
+   *                      to use it.
+   */
+  private static void search(ShardedSearcher searcher, HitPrinter hitPrinter, StandardAnalyzer analyzer, boolean indexSuffixes,
+                             String word) throws QueryNodeException, IOException {
     var parser = new StandardQueryParser(analyzer);
     {
       // By default, leading wildcards are not allowed because when used, they cause the search to do a full scan of the
       // term index. This is slow relative to a normal index-driven search. For example, you can't search "*fish" in the
       // hopes of finding matches for "starfish". Fortunately, you can relax this restriction, but you should consider
-      // the impact to performance.
+      // the impact to performance. With the "--wildcard-index=suffixes" option, the scan is avoided altogether: "*fish"
+      // becomes a term lookup in the suffix companion field. See SuffixField.
       parser.setAllowLeadingWildcard(true);
     }
     Query query = parser.parse(word, FileAsLinesIndexer.FIELD_CONTENTS);
+    if (indexSuffixes) {
+      query = SuffixField.rewrite(query, Set.of(FileAsLinesIndexer.FIELD_CONTENTS));
+    }
 
-    search(searcher, query);
+    search(searcher, hitPrinter, query);
   }
 
   /**
    * Execute a search and print the results.
    */
-  private static void search(IndexSearcher searcher, Query query) throws IOException {
-    StoredFields storedFields;
-    try {
-      storedFields = searcher.storedFields();
-    } catch (IOException e) {
-      throw new RuntimeException("Something went wrong during search initialization.", e);
-    }
-
+  private static void search(ShardedSearcher searcher, HitPrinter hitPrinter, Query query) throws IOException {
     TopDocs results = searcher.search(query, 10);
     ScoreDoc[] hits = results.scoreDocs;
     log.info("Found {} hits", hits.length);
 
     for (ScoreDoc hit : hits) {
-      Document document = storedFields.document(hit.doc);
-      log.info("    Hit: {}", document);
+      log.info("    Hit: {}", hitPrinter.describe(hit));
     }
 
     log.info("");
   }
 
-  private static void indexFilesInDirectory(IndexWriter indexWriter, Path documentsDir) throws IOException {
+  /**
+   * Describes a hit. How depends on the document shape: a stored document is printed as-is, and a line in the
+   * "offsets" shape is read back from its source file.
+   */
+  @FunctionalInterface
+  private interface HitPrinter {
+    String describe(ScoreDoc hit) throws IOException;
+  }
+
+  /**
+   * A hit's doc ID is only meaningful in its shard, so each shard gets its own printer.
+   */
+  private static HitPrinter hitPrinter(ShardedSearcher searcher, FileAsLinesIndexer.DocumentShape shape) throws IOException {
+    var printers = new ArrayList<HitPrinter>();
+    for (DirectoryReader reader : searcher.readers()) {
+      printers.add(switch (shape) {
+        case STORED_TEXT -> {
+          StoredFields storedFields = reader.storedFields();
+          yield hit -> storedFields.document(hit.doc).toString();
+        }
+        case OFFSETS -> {
+          var lineRetriever = new LineRetriever(reader);
+          yield hit -> {
+            LineRetriever.Line line = lineRetriever.line(hit.doc);
+            return "%s@%d: %s".formatted(Path.of(line.path()).getFileName(), line.offset(), line.text());
+          };
+        }
+      });
+    }
+    return hit -> printers.get(hit.shardIndex).describe(hit);
+  }
+
+  private static FileAsLinesIndexer.DocumentShape documentShape(CommandLineOptions options) {
+    String shape = options.string("document-shape", "stored-text");
+    return switch (shape) {
+      case "stored-text" -> FileAsLinesIndexer.DocumentShape.STORED_TEXT;
+      case "offsets" -> FileAsLinesIndexer.DocumentShape.OFFSETS;
+      default -> throw new IllegalArgumentException("Unknown document shape '%s'. Expected one of: stored-text, offsets".formatted(shape));
+    };
+  }
+
+  private static boolean indexSuffixes(CommandLineOptions options) {
+    String wildcardIndex = options.string("wildcard-index", "none");
+    return switch (wildcardIndex) {
+      case "none" -> false;
+      case "suffixes" -> true;
+      default -> throw new IllegalArgumentException("Unknown wildcard index '%s'. Expected one of: none, suffixes".formatted(wildcardIndex));
+    };
+  }
+
+  /**
+   * The analyzer for indexing. With the suffix companion field, the companion gets its own analysis chain.
+   */
+  private static Analyzer analyzer(boolean indexSuffixes) {
+    var analyzer = new StandardAnalyzer();
+    return indexSuffixes ? SuffixField.wrap(analyzer, Set.of(FileAsLinesIndexer.FIELD_CONTENTS)) : analyzer;
+  }
+
+  /**
+   * With one shard, the index is in the "index" directory, like before there were shards. With more, each shard is in a
+   * subdirectory of "index-shards".
+   */
+  private static List<Path> indexDirs(int shards) {
+    if (shards == 1) {
+      return List.of(INDEX_DIR);
+    }
+    return IntStream.range(0, shards).mapToObj(shard -> SHARDS_DIR.resolve("shard-" + shard)).toList();
+  }
+
+  private static long sizeInBytes(ShardedSearcher searcher) throws IOException {
+    long size = 0;
+    for (DirectoryReader reader : searcher.readers()) {
+      Directory dir = reader.directory();
+      for (String file : dir.listAll()) {
+        size += dir.fileLength(file);
+      }
+    }
+    return size;
+  }
+
+  private static void indexFilesInDirectory(IndexWriter indexWriter, Path documentsDir, FileAsLinesIndexer.DocumentShape shape,
+                                            boolean indexSuffixes) throws IOException {
     log.info("Indexing all 'subject documents' in the directory: {}", documentsDir.toAbsolutePath());
     log.info("Writing the index files to the directory: {}", indexWriter.getDirectory());
 
-    var fileAsLinesIndexer = new FileAsLinesIndexer(indexWriter);
+    var fileAsLinesIndexer = new FileAsLinesIndexer(indexWriter, shape, indexSuffixes);
     Files.walkFileTree(documentsDir, new SimpleFileVisitor<>() {
       @Override
       public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
@@ -127,12 +252,69 @@ public class Runner {
     });
   }
 
-  private static IndexWriter indexWriter(FSDirectory dir, StandardAnalyzer analyzer) throws IOException {
+  /**
+   * Index the files with a pool of workers. See {@link ParallelFileIngester}. This pays off for a big corpus, like
+   * hundreds of thousands of files. For the few short stories, it makes no difference. With more than one index writer,
+   * each file is routed to the shard of its file name.
+   */
+  private static void indexFilesInDirectoryInParallel(List<IndexWriter> indexWriters, Path documentsDir,
+                                                      FileAsLinesIndexer.DocumentShape shape, boolean indexSuffixes,
+                                                      CommandLineOptions options) throws IOException {
+    for (IndexWriter indexWriter : indexWriters) {
+      log.info("Writing the index files to the directory: {}", indexWriter.getDirectory());
+    }
+    var ingester = new ParallelFileIngester(indexWriters, shape, indexSuffixes,
+            options.integer("ingestion-threads", Runtime.getRuntime().availableProcessors()),
+            options.integer("ingestion-queue-size", 1_024),
+            options.integer("ingestion-batch-size", 1_000));
+    ParallelFileIngester.Report report = ingester.ingest(documentsDir);
+    log.info("Ingestion done: {}", report);
+  }
+
+  /**
+   * Open an index writer on each index directory. The writers share the analyzer, which is thread-safe.
+   */
+  private static List<IndexWriter> openIndexWriters(List<Path> indexDirs, Analyzer analyzer, boolean incremental) throws IOException {
+    var indexWriters = new ArrayList<IndexWriter>(indexDirs.size());
+    for (Path indexDir : indexDirs) {
+      FSDirectory dir = FSDirectory.open(indexDir);
+      try {
+        indexWriters.add(indexWriter(dir, analyzer, incremental));
+      } catch (IOException e) {
+        IOUtils.closeWhileHandlingException(dir);
+        closeIndexWriters(indexWriters);
+        throw e;
+      }
+    }
+    return indexWriters;
+  }
+
+  /**
+   * Close the index writers, which commits them, and then their directories.
+   */
+  private static void closeIndexWriters(List<IndexWriter> indexWriters) throws IOException {
+    List<Directory> dirs = indexWriters.stream().map(IndexWriter::getDirectory).toList();
+    try {
+      IOUtils.close(indexWriters);
+    } finally {
+      IOUtils.close(dirs);
+    }
+  }
+
+  /**
+   * @param incremental open the existing index, if there is one, instead of starting over
+   */
+  private static IndexWriter indexWriter(FSDirectory dir, Analyzer analyzer, boolean incremental) throws IOException {
     IndexWriterConfig config = new IndexWriterConfig(analyzer);
 
-    // This configuration removes any pre-existing index files (although this won't work if the encoding changed, like
-    // I experienced with the evolution from the Lucene92 to Lucene95 encoding. I had to delete the index by manually.)
-    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+    // The "CREATE" configuration removes any pre-existing index files (although this won't work if the encoding changed,
+    // like I experienced with the evolution from the Lucene92 to Lucene95 encoding. I had to delete the index by
+    // manually.)
+    config.setOpenMode(incremental ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+
+    // The RAM buffer is shared by all the indexing threads. The default of 16 MB is small when many threads index at
+    // once: each thread's in-memory segment would be flushed while it's still tiny, and there would be more merging.
+    config.setRAMBufferSizeMB(256);
 
     return new IndexWriter(dir, config);
   }
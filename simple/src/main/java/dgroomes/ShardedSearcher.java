@@ -0,0 +1,189 @@
+package dgroomes;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Search an index that is split into shards, each in its own directory. See {@link ParallelFileIngester} for how the
+ * documents are routed to the shards.
+ * <p>
+ * A search fans out to every shard in parallel, and the top hits of the shards are merged with
+ * {@link TopDocs#merge(int, TopDocs[])}. Each hit's {@link ScoreDoc#shardIndex} says which shard it came from, because
+ * its doc ID only means something within that shard.
+ * <p>
+ * Merging by score only works if the scores of the shards are comparable. BM25 scores depend on term statistics (how
+ * many documents have the term) and collection statistics (how many documents there are, how long the field is on
+ * average). Each shard only knows its own, so a rare term in one shard would score higher there than the same term in
+ * a shard where it's common. So each shard's searcher is given the statistics of the whole index instead. The shards
+ * are read-only while they're searched, so the collection statistics are computed once per field. The term statistics
+ * are looked up in every shard, for every term of every query.
+ */
+public class ShardedSearcher implements Closeable {
+
+  private final List<DirectoryReader> readers;
+  private final List<IndexSearcher> searchers;
+  private final ExecutorService executor;
+  private final Map<String, Optional<CollectionStatistics>> collectionStatistics = new ConcurrentHashMap<>();
+
+  private ShardedSearcher(List<DirectoryReader> readers) {
+    this.readers = readers;
+    this.searchers = readers.stream().<IndexSearcher>map(GlobalStatisticsSearcher::new).toList();
+    this.executor = Executors.newFixedThreadPool(readers.size(), Thread.ofPlatform().name("shard-search-", 0).daemon().factory());
+  }
+
+  /**
+   * Open a reader on each shard directory. The order of the directories is the order of the shards.
+   */
+  public static ShardedSearcher open(List<Path> shardDirs) throws IOException {
+    var readers = new ArrayList<DirectoryReader>(shardDirs.size());
+    for (Path shardDir : shardDirs) {
+      FSDirectory dir = FSDirectory.open(shardDir);
+      try {
+        readers.add(DirectoryReader.open(dir));
+      } catch (IOException e) {
+        IOUtils.closeWhileHandlingException(dir);
+        IOUtils.closeWhileHandlingException(directoriesAndReaders(readers));
+        throw e;
+      }
+    }
+    return new ShardedSearcher(readers);
+  }
+
+  public List<DirectoryReader> readers() {
+    return readers;
+  }
+
+  /**
+   * Search every shard for its top {@code n} hits, in parallel, and merge them into the top {@code n} overall.
+   */
+  public TopDocs search(Query query, int n) throws IOException {
+    var futures = new ArrayList<Future<TopDocs>>(searchers.size());
+    for (IndexSearcher searcher : searchers) {
+      futures.add(executor.submit(() -> searcher.search(query, n)));
+    }
+
+    var shardHits = new TopDocs[futures.size()];
+    try {
+      for (int shard = 0; shard < shardHits.length; shard++) {
+        shardHits[shard] = futures.get(shard).get();
+        for (ScoreDoc scoreDoc : shardHits[shard].scoreDocs) {
+          scoreDoc.shardIndex = shard;
+        }
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException ioException) {
+        throw ioException;
+      }
+      throw new IllegalStateException("Unexpected error while searching a shard", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while searching the shards", e);
+    }
+    return TopDocs.merge(n, shardHits);
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdownNow();
+    IOUtils.close(directoriesAndReaders(readers));
+  }
+
+  /**
+   * The readers must be closed before their directories.
+   */
+  private static List<Closeable> directoriesAndReaders(List<DirectoryReader> readers) {
+    var closeables = new ArrayList<Closeable>(readers);
+    readers.forEach(reader -> closeables.add(reader.directory()));
+    return closeables;
+  }
+
+  /**
+   * The statistics of a field across all the shards, or empty if no shard has the field.
+   */
+  private Optional<CollectionStatistics> collectionStatistics(String field) throws IOException {
+    Optional<CollectionStatistics> cached = collectionStatistics.get(field);
+    if (cached != null) {
+      return cached;
+    }
+
+    long maxDoc = 0;
+    long docCount = 0;
+    long sumTotalTermFreq = 0;
+    long sumDocFreq = 0;
+    for (DirectoryReader reader : readers) {
+      // The plain searcher computes the statistics of its own shard.
+      CollectionStatistics shard = new IndexSearcher(reader).collectionStatistics(field);
+      if (shard == null) {
+        continue;
+      }
+      maxDoc += shard.maxDoc();
+      docCount += shard.docCount();
+      sumTotalTermFreq += shard.sumTotalTermFreq();
+      sumDocFreq += shard.sumDocFreq();
+    }
+    Optional<CollectionStatistics> statistics = docCount == 0
+            ? Optional.empty()
+            : Optional.of(new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq));
+    collectionStatistics.put(field, statistics);
+    return statistics;
+  }
+
+  /**
+   * The statistics of a term across all the shards.
+   */
+  private TermStatistics termStatistics(Term term) throws IOException {
+    long docFreq = 0;
+    long totalTermFreq = 0;
+    for (IndexReader reader : readers) {
+      docFreq += reader.docFreq(term);
+      totalTermFreq += reader.totalTermFreq(term);
+    }
+    return new TermStatistics(term.bytes(), docFreq, totalTermFreq);
+  }
+
+  /**
+   * Searches one shard, but scores with the statistics of the whole index.
+   */
+  private class GlobalStatisticsSearcher extends IndexSearcher {
+
+    GlobalStatisticsSearcher(IndexReader reader) {
+      super(reader);
+    }
+
+    /**
+     * This is only called for a term that is in this shard, so the term is in the index and its global document
+     * frequency is at least one.
+     */
+    @Override
+    public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) throws IOException {
+      return ShardedSearcher.this.termStatistics(term);
+    }
+
+    @Override
+    public CollectionStatistics collectionStatistics(String field) throws IOException {
+      return ShardedSearcher.this.collectionStatistics(field).orElse(null);
+    }
+  }
+}
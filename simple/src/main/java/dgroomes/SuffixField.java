@@ -0,0 +1,120 @@
+package dgroomes;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.reverse.ReverseStringFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A companion field that makes leading wildcard ("*fish") and infix ("*tar*") searches fast.
+ * <p>
+ * A leading wildcard can't use the term dictionary, which is sorted by the start of the terms. Lucene has to visit
+ * every term of the field and test it against the pattern. For a big vocabulary that's orders of magnitude slower than
+ * looking up a term.
+ * <p>
+ * The companion field indexes every suffix of every token: "starfish" is indexed as "starfish", "tarfish", "arfish",
+ * ..., "h". The analysis chain reverses the token, takes its leading n-grams (which are the reversed suffixes) and
+ * reverses them back. Then:
+ * <p>
+ * - "*fish" (a token that ends with "fish") is the single term "fish" in the companion field.
+ * - "*tar*" (a token that contains "tar") is the prefix "tar" in the companion field: a token contains "tar" exactly
+ *   when one of its suffixes starts with "tar". A prefix only visits the terms that start with it.
+ * <p>
+ * The price is index size: a token of n characters adds n terms. Other patterns, like "*fi?h", are left alone and
+ * still scan the term dictionary.
+ */
+public class SuffixField {
+
+  /**
+   * The tokenizer already splits tokens longer than this, so every suffix of every token is indexed.
+   */
+  private static final int MAX_SUFFIX_LENGTH = StandardAnalyzer.DEFAULT_MAX_TOKEN_LENGTH;
+
+  /**
+   * The name of the companion field of a field.
+   */
+  public static String companion(String field) {
+    return field + "_suffixes";
+  }
+
+  /**
+   * Wrap an analyzer so that the companion fields of the given fields are analyzed into suffixes. The other fields are
+   * analyzed by the given analyzer.
+   * <p>
+   * The companion fields are tokenized and lower-cased the same way as {@link StandardAnalyzer} does it, so their
+   * suffixes line up with the terms of the original fields.
+   */
+  public static Analyzer wrap(Analyzer analyzer, Set<String> fields) {
+    var suffixAnalyzer = new Analyzer() {
+      @Override
+      protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer tokenizer = new StandardTokenizer();
+        TokenStream stream = new LowerCaseFilter(tokenizer);
+        stream = new ReverseStringFilter(stream);
+        stream = new EdgeNGramTokenFilter(stream, 1, MAX_SUFFIX_LENGTH, false);
+        stream = new ReverseStringFilter(stream);
+        return new TokenStreamComponents(tokenizer, stream);
+      }
+    };
+    var perField = new HashMap<String, Analyzer>();
+    for (String field : fields) {
+      perField.put(companion(field), suffixAnalyzer);
+    }
+    return new PerFieldAnalyzerWrapper(analyzer, perField);
+  }
+
+  /**
+   * Rewrite the leading and infix wildcards on the given fields into lookups on their companion fields. The rest of the
+   * query is kept as-is. Like a wildcard query, the rewritten lookups give every match the same score.
+   */
+  public static Query rewrite(Query query, Set<String> fields) {
+    if (query instanceof WildcardQuery wildcardQuery && fields.contains(wildcardQuery.getField())) {
+      return rewriteWildcard(wildcardQuery);
+    }
+    if (query instanceof BooleanQuery booleanQuery) {
+      var builder = new BooleanQuery.Builder().setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+      for (BooleanClause clause : booleanQuery.clauses()) {
+        builder.add(rewrite(clause.getQuery(), fields), clause.getOccur());
+      }
+      return builder.build();
+    }
+    if (query instanceof BoostQuery boostQuery) {
+      return new BoostQuery(rewrite(boostQuery.getQuery(), fields), boostQuery.getBoost());
+    }
+    return query;
+  }
+
+  private static Query rewriteWildcard(WildcardQuery query) {
+    String pattern = query.getTerm().text();
+    if (pattern.length() < 2 || pattern.charAt(0) != WildcardQuery.WILDCARD_STRING) {
+      return query;
+    }
+    boolean infix = pattern.length() > 2 && pattern.charAt(pattern.length() - 1) == WildcardQuery.WILDCARD_STRING;
+    String literal = pattern.substring(1, infix ? pattern.length() - 1 : pattern.length());
+    if (literal.indexOf(WildcardQuery.WILDCARD_STRING) != -1 || literal.indexOf(WildcardQuery.WILDCARD_CHAR) != -1
+        || literal.indexOf(WildcardQuery.WILDCARD_ESCAPE) != -1) {
+      return query;
+    }
+
+    var term = new Term(companion(query.getField()), literal.toLowerCase(Locale.ROOT));
+    return infix ? new PrefixQuery(term) : new ConstantScoreQuery(new TermQuery(term));
+  }
+}